@@ -0,0 +1,107 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An abstract superclass of injectors that inject templates for the site as a
+ * whole (eg, the default reference organisms of each project) rather than for
+ * one dataset presenter.
+ *
+ * A DatasetInjector names the aggregate it needs in
+ * {@link DatasetInjector#getAggregateInjectorClass()}. The DatasetInjectorSet
+ * creates one aggregate of each class named by any of its injectors, and runs
+ * it once, after the per-presenter injectors, with access to all the
+ * presenters and to the global dataset properties. Its template instances are
+ * added after theirs, in the order the aggregates were registered.
+ *
+ * Its property values start as those of the first presenter whose injector
+ * named it, as they are once that injector has run, so its templates can use
+ * the presenter's properties (datasetName, presenterId, ...) as they would
+ * if that injector had injected them.
+ *
+ * Subclasses must be public, with a public no-arg constructor.
+ */
+public abstract class AggregateDatasetInjector {
+
+  private Map<String, String> _propValues = new HashMap<String, String>();
+  private DatasetInjectorSet _datasetInjectorSet;
+  private DatasetInjector _presenterInjector;
+  private GlobalDatasetPropertyIndex _globalDatasetPropertyIndex;
+
+  /**
+   * Subclasses call {@link #injectTemplate(String)} in this method to inject
+   * template instances, usually after setting the instance's properties with
+   * {@link #setPropValue(String, String)}.
+   */
+  protected abstract void injectTemplates();
+
+  /**
+   * Set a property value for the template instances injected from now on.
+   */
+  protected void setPropValue(String key, String value) {
+    _propValues.put(key, value);
+  }
+
+  protected String getPropValue(String key) {
+    return _propValues.get(key);
+  }
+
+  /**
+   * Inject a template, passed the property values set so far. As with a
+   * DatasetInjector, the instance keeps the values it was injected with, so an
+   * aggregate can loop over projects or organisms setting and injecting.
+   */
+  protected void injectTemplate(String templateName) {
+    _datasetInjectorSet.injectTemplate(templateName, _propValues);
+  }
+
+  /**
+   * @return the names of the datasets whose presenters are in the set, in the
+   *         order they were added
+   */
+  protected List<String> getDatasetNames() {
+    return _datasetInjectorSet.getDatasetNames();
+  }
+
+  /**
+   * @return the property values of the dataset's presenter, or null if it is
+   *         not in the set
+   */
+  protected Map<String, String> getPresenterPropValues(String datasetName) {
+    DatasetInjector datasetInjector = _datasetInjectorSet.getDatasetInjector(datasetName);
+    return datasetInjector == null ? null : Collections.unmodifiableMap(datasetInjector.getPropValues());
+  }
+
+  /**
+   * @return the index of the global dataset properties, or null if the
+   *         presenters were given none
+   */
+  protected GlobalDatasetPropertyIndex getGlobalDatasetPropertyIndex() {
+    return _globalDatasetPropertyIndex;
+  }
+
+  /**
+   * Start from the property values of the presenter that named this
+   * aggregate, and inject.
+   */
+  void injectPresenterTemplates() {
+    _propValues = _presenterInjector == null ? new HashMap<String, String>()
+        : new HashMap<String, String>(_presenterInjector.getPropValues());
+    injectTemplates();
+  }
+
+  void setPresenterInjector(DatasetInjector presenterInjector) {
+    _presenterInjector = presenterInjector;
+  }
+
+  void setDatasetInjectorSet(DatasetInjectorSet datasetInjectorSet) {
+    _datasetInjectorSet = datasetInjectorSet;
+  }
+
+  void setGlobalDatasetPropertyIndex(GlobalDatasetPropertyIndex globalDatasetPropertyIndex) {
+    _globalDatasetPropertyIndex = globalDatasetPropertyIndex;
+  }
+}
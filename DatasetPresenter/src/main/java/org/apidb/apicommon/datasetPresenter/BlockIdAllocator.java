@@ -0,0 +1,69 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Hands out surrogate key values for the DatasetPresenter child tables in
+ * blocks, so the loader binds explicit ids instead of calling
+ * <code>&lt;table&gt;_sq.nextval</code> for every row.
+ *
+ * The table sequences are created with <code>increment by BLOCK_SIZE</code>
+ * (see presenterCreateSchema). Each nextval therefore reserves the ids
+ * [value, value + BLOCK_SIZE), which this allocator uses up before asking the
+ * sequence again. Loaders running in parallel get disjoint blocks.
+ */
+class BlockIdAllocator {
+
+  /**
+   * Must agree with the sequence increment in presenterCreateSchema.
+   */
+  static final int BLOCK_SIZE = 1000;
+
+  private final Connection _connection;
+  private final String _schema;
+  private final String _suffix;
+
+  // per table: {next id to hand out, first id past the block}
+  private final Map<PresenterTable, long[]> _blocks = new EnumMap<PresenterTable, long[]>(PresenterTable.class);
+  private final Map<PresenterTable, PreparedStatement> _sequenceQueries = new EnumMap<PresenterTable, PreparedStatement>(PresenterTable.class);
+
+  BlockIdAllocator(Connection connection, String schema, String suffix) {
+    _connection = connection;
+    _schema = schema;
+    _suffix = suffix;
+  }
+
+  long nextId(PresenterTable table) throws SQLException {
+    long[] block = _blocks.get(table);
+    if (block == null || block[0] >= block[1]) {
+      long start = reserveBlock(table);
+      block = new long[] { start, start + BLOCK_SIZE };
+      _blocks.put(table, block);
+    }
+    return block[0]++;
+  }
+
+  private long reserveBlock(PresenterTable table) throws SQLException {
+    PreparedStatement query = _sequenceQueries.get(table);
+    if (query == null) {
+      query = _connection.prepareStatement("SELECT "
+          + table.getTableName(_schema, _suffix) + "_sq.nextval FROM dual");
+      _sequenceQueries.put(table, query);
+    }
+    try (ResultSet rs = query.executeQuery()) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  void close() throws SQLException {
+    for (PreparedStatement query : _sequenceQueries.values()) {
+      query.close();
+    }
+  }
+}
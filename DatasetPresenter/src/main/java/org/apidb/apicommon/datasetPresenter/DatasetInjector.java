@@ -1,16 +1,14 @@
 package org.apidb.apicommon.datasetPresenter;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.HashSet;
 
 import org.apache.log4j.Logger;
-import org.apidb.apicommon.comparator.NaturalOrderComparator;
 
 /**
  * An abstract superclass of DatasetInjectors. Contains the information needed
@@ -33,6 +31,7 @@ public abstract class DatasetInjector {
   private DatasetInjectorSet _datasetInjectorSet;
   private Map<String, ModelReference> _modelReferences = new HashMap<String, ModelReference>();
   private Map<String, Map<String, String>> _globalDatasetProperties;
+  private GlobalDatasetPropertyIndex _globalDatasetPropertyIndex;
 
   private TemplateSet _templateSet;
 
@@ -53,6 +52,9 @@ public abstract class DatasetInjector {
    * presenter XML file.
    * <li>
    * 
+   * The declaration is captured once per class (see PropertyDeclaration), so
+   * it must not depend on the instance.
+   * 
    * @see DatasetPresenter
    * @return an array of String pairs: (property name, documentation for that
    *         property)
@@ -90,6 +92,21 @@ public abstract class DatasetInjector {
    * Optionally they provide additional hard-coded properties to templates by
    * calling {@link #setPropValue(String, String)} before calling
    * <code>injectTemplate()</code>.
+   * 
+   * The injectors of a DatasetInjectorSet are run concurrently, each on one
+   * thread, so implementations must:
+   * <ul>
+   * <li>change only this injector's own state (its property values, and its
+   * own fields). Static fields must not be written, unless they are
+   * thread-safe caches whose values don't depend on which injector fills
+   * them.</li>
+   * <li>only read the global dataset properties and the TemplateSet, which are
+   * shared by all injectors. The global map itself is unmodifiable; the
+   * per-dataset maps in it must not be changed either.</li>
+   * <li>call <code>injectTemplate()</code> on the thread that called this
+   * method, not from threads of their own.</li>
+   * </ul>
+   * The order of the injected templates is kept.
    */
   protected abstract void injectTemplates();
 
@@ -111,7 +128,20 @@ public abstract class DatasetInjector {
     }
 
 
+    /**
+     * Replace the property values with those this injector had after an
+     * earlier run whose output is replayed (see InjectorOutputCache). They are
+     * replaced in this injector's own map, which is what aggregates read through
+     * getPropValues(), so they see the same values as after a run.
+     */
+    void setResultPropValues(Map<String, String> propValues) {
+        _propValues.clear();
+        _propValues.putAll(propValues);
+    }
+
+
     protected TemplateSet getTemplateSet() {
+        GlobalPropertyReads.recordAllTemplates();
         return _templateSet;
     }
 
@@ -121,9 +151,8 @@ public abstract class DatasetInjector {
 
 
     protected String getTemplateInstanceText(String templateName) {
-      TemplateSet templateSet = getTemplateSet();
-
-      Template template = templateSet.getTemplateByName(templateName);
+      GlobalPropertyReads.recordTemplate(templateName);
+      Template template = _templateSet.getTemplateByName(templateName);
       TemplateInstance templateInstance = new TemplateInstance(templateName,
                                                                Collections.unmodifiableMap(_propValues));
 
@@ -164,9 +193,7 @@ public abstract class DatasetInjector {
    * addPropValue().
    */
   protected void injectTemplate(String templateName) {
-    TemplateInstance templateInstance = new TemplateInstance(templateName,
-        Collections.unmodifiableMap(_propValues));
-    _datasetInjectorSet.injectTemplateInstance(templateInstance);
+    _datasetInjectorSet.injectTemplate(templateName, _propValues);
   }
 
   /**
@@ -263,11 +290,57 @@ public abstract class DatasetInjector {
     // injector a potential match; otherwise, not match.
     return hasProp;
   }
+
+  /**
+   * Discover with the presenter's property names already made a key set (see
+   * PropertyDeclaration), so that discovery among many injector classes
+   * computes it once. The key set must be made after this class's declaration
+   * was captured. Classes that override discover(Map) are asked that.
+   */
+  boolean discover(Map<String, String> propValues, BitSet propKeys) {
+    PropertyDeclaration declaration = getDeclaration();
+    return declaration.overridesDiscover() ? discover(propValues) : declaration.isDeclaredIn(propKeys);
+  }
+
+  private PropertyDeclaration getDeclaration() {
+    return PropertyDeclaration.getDeclaration(this);
+  }
   
   public boolean isDiscoverable() {
     return false;
   }
 
+  /**
+   * Whether the templates this injector injects depend only on its class, its
+   * presenter's properties and what it reads of the global dataset properties
+   * and templates, so they can be replayed from the InjectorOutputCache when
+   * none of those have changed. Subclasses whose templates depend on anything
+   * else (files, the environment, the time) return false.
+   */
+  protected boolean isOutputCacheable() {
+    return true;
+  }
+
+  /**
+   * @return the injectors whose code and properties make this injector's
+   *         output: this one, and any it delegates to
+   */
+  Collection<DatasetInjector> getOutputInjectors() {
+    return Collections.singletonList(this);
+  }
+
+  /**
+   * Subclasses that need templates injected once for the whole site, computed
+   * across all datasets, rather than once per presenter, name the
+   * AggregateDatasetInjector that does so here. However many presenters use
+   * the subclass, the aggregate is run once.
+   * 
+   * @return the aggregate's class, or null if none is needed
+   */
+  protected Class<? extends AggregateDatasetInjector> getAggregateInjectorClass() {
+    return null;
+  }
+
   /**
    * Set the name of the dataset that is being injected.
    * 
@@ -297,141 +370,28 @@ public abstract class DatasetInjector {
 
   /***
    * return the first word before the underscore in a dataset name for organism
-   * specific .. this is always the orgAbbrev
+   * specific .. this is always the orgAbbrev. More precisely, the shortest
+   * prefix of whole words that names an organism of the project (see
+   * OrganismResolver)
    * 
    */
   protected String getOrganismAbbrevFromDatasetName() {
-    if (_datasetName.equals("")) {
-      return "";
-    }
-
-    try {
-      String[] tokens = _datasetName.split("_");
-      String organismAbbrev = tokens[0];
-     
-      if(organismAbbrev.equals("")){
-        return "";
-      } else {
-
-        String projectName = getPropValue("projectName");
-        Map<String, Map<String, String>> globalProps = this.getGlobalDatasetProperties();
-
-        for(int i = 0; i < tokens.length - 1; i++) {
-          String orgPropsKey = projectName + ":" + organismAbbrev + "_RSRC";
-
-          Map<String, String> orgProps = globalProps.get(orgPropsKey);
-          if (orgProps == null) {
-            organismAbbrev +=  "_" + tokens[i+1];
-          } else {
-            return organismAbbrev;
-          }
-        } 
-        return organismAbbrev;
-      } 
-    } catch (Exception e) {
-      LOG.error("Unable to get organism abbrev from dataset name", e);
-      return "";
-    }
-
-    // These conditions are a band-aid until we can read the organism xml file
-    // in EUPathDatasets
-    /**
-    if (this.datasetName.substring(0, 4).equals("gass")) {
-      return "G.l.";
-    }
-
-    if (this.datasetName.substring(0, 5).equals("Phyra")) {
-      return "P.r.";
-    }
-
-    if (this.datasetName.substring(0, 5).equals("Hyaar")) {
-      return "H.a.";
-    }
-
-    return this.datasetName.substring(0, 1).toUpperCase() + "."
-        + this.datasetName.substring(1, 2).toLowerCase() + ".";
-    */
+    return resolveOrganism().getAbbrev();
   }
 
 
   protected String getOrganismAbbrevDisplayFromDatasetName() {
-    if (_datasetName.equals("")) {
-      return "";
-    }
-
-    try {
-      String[] tokens = _datasetName.split("_");
-      String organismAbbrev = tokens[0];
-     
-      if(organismAbbrev.equals("")){
-        return "";
-      } else {
-
-        String projectName = getPropValue("projectName");
-        Map<String, Map<String, String>> globalProps = this.getGlobalDatasetProperties();
-
-        for(int i = 0; i < tokens.length - 1; i++) {
-          String orgPropsKey = projectName + ":" + organismAbbrev + "_RSRC";
-
-          Map<String, String> orgProps = globalProps.get(orgPropsKey);
-          if (orgProps == null) {
-            organismAbbrev +=  "_" + tokens[i+1];
-          } else {
-           String[] orgName =  orgProps.get("organismFullName").split(" ");
-            String orgAbbrevDisplay = String.valueOf(orgName[0].charAt(0));
-
-	    orgAbbrevDisplay += ".";
-
-            for(int j = 1; j < orgName.length; j++) {
-                orgAbbrevDisplay += " " + orgName[j];
-            }
-
-            return orgAbbrevDisplay;
-          }
-        } 
-        return organismAbbrev;
-      } 
-    } catch (Exception e) {
-      LOG.error("Unable to get organism abbrev display from dataset name", e);
-      return "";
-    }
-
+    return resolveOrganism().getAbbrevDisplay();
   }
 
- protected String getOrganismNamesForFilesFromDatasetName() {
-    if (_datasetName.equals("")) {
-      return "";
-    }
-
-    try {
-      String[] tokens = _datasetName.split("_");
-      String organismAbbrev = tokens[0];
-     
-      if(organismAbbrev.equals("")){
-        return "";
-      } else {
-
-        String projectName = getPropValue("projectName");
-        Map<String, Map<String, String>> globalProps = this.getGlobalDatasetProperties();
-
-        for(int i = 0; i < tokens.length - 1; i++) {
-          String orgPropsKey = projectName + ":" + organismAbbrev + "_RSRC";
-
-          Map<String, String> orgProps = globalProps.get(orgPropsKey);
-          if (orgProps == null) {
-            organismAbbrev +=  "_" + tokens[i+1];
-          } else {
-           String orgNameForFiles =  orgProps.get("organismNameForFiles");
-            return orgNameForFiles;
-          }
-        } 
-        return organismAbbrev;
-      } 
-    } catch (Exception e) {
-      LOG.error("Unable to get organism abbrev display from dataset name", e);
-      return "";
-    }
+  protected String getOrganismNamesForFilesFromDatasetName() {
+    return resolveOrganism().getNameForFiles();
+  }
 
+  private OrganismResolver.Organism resolveOrganism() {
+    OrganismResolver resolver = _globalDatasetPropertyIndex == null ? OrganismResolver.NO_PROPERTIES
+        : _globalDatasetPropertyIndex.getOrganismResolver();
+    return resolver.resolve(getPropValue("projectName"), _datasetName);
   }
 
   protected void setOrganismAbbrevFromDatasetName() {
@@ -463,13 +423,29 @@ public abstract class DatasetInjector {
   }
   
   void setGlobalDatasetProperties(Map<String, Map<String, String>> globalDatasetProps) {
-    _globalDatasetProperties = globalDatasetProps;
+    _globalDatasetProperties = globalDatasetProps == null ? null
+        : GlobalPropertyReads.getRecordingView(Collections.unmodifiableMap(globalDatasetProps));
+    _globalDatasetPropertyIndex = globalDatasetProps == null ? null
+        : GlobalDatasetPropertyIndex.getIndex(globalDatasetProps);
   }
 
+  /**
+   * @return the properties of every dataset, by dataset name. Shared by all
+   *         injectors, which may run concurrently, so read only.
+   */
   protected Map<String, Map<String, String>> getGlobalDatasetProperties() {
     return _globalDatasetProperties;
   }
 
+  /**
+   * @return an index of the global dataset properties, for looking up
+   *         datasets by name, property or organism without iterating over them
+   *         all. Shared by all injectors, so read only.
+   */
+  protected GlobalDatasetPropertyIndex getGlobalDatasetPropertyIndex() {
+    return _globalDatasetPropertyIndex;
+  }
+
   protected void setShortAttribution() {
     String shortAttribution = getPropValue("shortAttribution");
 
@@ -487,46 +463,17 @@ public abstract class DatasetInjector {
   }
 
 
+  /**
+   * @return the naturally sorted distinct samples of this dataset's
+   *         experiment, from the global dataset properties of its samples (see
+   *         ExperimentSampleIndex)
+   */
   protected List<String> getSampleList() {
 
     Map<String, Map<String, String>> globalProps = getGlobalDatasetProperties();
-    Iterator<String> globalPropsKeys = globalProps.keySet().iterator();
-
-    Map<String, List<String>> exptSamples = new HashMap<String, List<String>>();
 
     String organismAbbrev = getPropValue("organismAbbrev");
 
-    while (globalPropsKeys.hasNext()) {
-        String dataset = globalPropsKeys.next();
-
-        if(!dataset.startsWith(organismAbbrev) || _datasetName.equals(dataset)) {
-            continue;
-        }
-
-        Map<String, String> datasetProps = globalProps.get(dataset);
-
-        if (datasetProps.containsKey("experimentName")) {
-            String sampleOrganismAbbrev = datasetProps.get("organismAbbrev");
-            String sampleDatasetClassCategory = datasetProps.get("datasetClassCategory");
-            String experimentName = datasetProps.get("experimentName");
-
-            String sampleExptKey = sampleOrganismAbbrev + "_" + sampleDatasetClassCategory + "_" + experimentName;
-
-            if(!exptSamples.containsKey(sampleExptKey)) {
-                exptSamples.put(sampleExptKey, new ArrayList<String>());
-            }
-
-            List<String> samples = exptSamples.get(sampleExptKey);
-
-            if (datasetProps.containsKey("sampleName")) {
-                samples.add(datasetProps.get("sampleName"));
-            } 
-            if (datasetProps.containsKey("snpStrainAbbrev")) {
-                samples.add(datasetProps.get("snpStrainAbbrev"));
-            }
-        }
-    }
-
     Map<String, String> exptProps = globalProps.get(_datasetName);
     if (exptProps == null) {
       throw new RuntimeException("No global props exist for dataset '" + _datasetName + "'.");
@@ -541,20 +488,12 @@ public abstract class DatasetInjector {
 
     String datasetClassCategory = getPropValue("datasetClassCategory");
 
-    String exptKey = organismAbbrev + "_" + datasetClassCategory + "_" + exptName;
+    List<String> sampleNames = _globalDatasetPropertyIndex.getExperimentSampleIndex().getSamples(
+        organismAbbrev, datasetClassCategory, exptName, _datasetName);
 
-    List<String> sampleNames = exptSamples.get(exptKey);
-
-    if (sampleNames.isEmpty()) {
+    if (sampleNames == null || sampleNames.isEmpty()) {
         throw new UserException ("No sample names found for dataset " + _datasetName);
     }
-    // remove duplicates (NGS and CNV have dup experiment and samples)
-    Set<String> distinctSamples = new HashSet<>();
-    distinctSamples.addAll(sampleNames);
-    sampleNames.clear();
-    sampleNames.addAll(distinctSamples);
-
-    Collections.sort(sampleNames, new NaturalOrderComparator());
     return sampleNames;
   }
 }
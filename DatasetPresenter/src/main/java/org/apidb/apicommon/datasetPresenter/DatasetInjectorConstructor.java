@@ -1,8 +1,12 @@
 package org.apidb.apicommon.datasetPresenter;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import org.gusdb.fgputil.xml.NamedValue;
 
@@ -13,9 +17,43 @@ import org.gusdb.fgputil.xml.NamedValue;
  * DatasetInjector subclass.
  */
 
-public class DatasetInjectorConstructor {
+public class DatasetInjectorConstructor implements Cloneable {
   final static String nl = System.getProperty("line.separator");
 
+  // injector classes by name, and a constructor handle for each, resolved on
+  // first use and shared by all presenters (and threads)
+  private static final Map<String, Class<? extends DatasetInjector>> INJECTOR_CLASSES =
+      new ConcurrentHashMap<String, Class<? extends DatasetInjector>>();
+
+  private static final ClassValue<Supplier<DatasetInjector>> INJECTOR_FACTORIES =
+      new ClassValue<Supplier<DatasetInjector>>() {
+        @Override
+        protected Supplier<DatasetInjector> computeValue(Class<?> injectorClass) {
+          MethodHandle constructor;
+          try {
+            constructor = MethodHandles.lookup()
+                .unreflectConstructor(injectorClass.getDeclaredConstructor())
+                .asType(MethodType.methodType(DatasetInjector.class));
+          }
+          catch (IllegalAccessException | NoSuchMethodException | SecurityException ex) {
+            throw new UserException("Can't find DatasetInjector subclass with name '"
+                + injectorClass.getName() + "'", ex);
+          }
+          return () -> {
+            try {
+              return (DatasetInjector) constructor.invokeExact();
+            }
+            catch (Error e) {
+              throw e;
+            }
+            catch (Throwable ex) {
+              throw new UserException("Can't find DatasetInjector subclass with name '"
+                  + injectorClass.getName() + "'", ex);
+            }
+          };
+        }
+      };
+
   private String datasetInjectorClassName;
   private Map<String, String> propValues = new HashMap<String, String>();
   private String datasetName;
@@ -67,6 +105,20 @@ public class DatasetInjectorConstructor {
     }
   }
 
+  /**
+   * Copy this constructor, with its own property values (see
+   * DatasetPresenter.copy()).
+   */
+  DatasetInjectorConstructor copy() {
+    try {
+      DatasetInjectorConstructor copy = (DatasetInjectorConstructor) super.clone();
+      copy.propValues = new HashMap<String, String>(propValues);
+      return copy;
+    } catch (CloneNotSupportedException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
   /**
    * Provide the property values added to this object.
    * 
@@ -104,25 +156,39 @@ public class DatasetInjectorConstructor {
 
 
   /**
-   * Use reflection to construct a subclass of DatasetInjector. Initialize the
-   * subclass's property values with those from this object.
+   * @return the DatasetInjector subclass with this name
+   */
+  static Class<? extends DatasetInjector> getInjectorClass(String className) {
+    Class<? extends DatasetInjector> injectorClass = INJECTOR_CLASSES.get(className);
+    if (injectorClass == null) {
+      try {
+        injectorClass = Class.forName(className).asSubclass(DatasetInjector.class);
+      }
+      catch (ClassNotFoundException ex) {
+        throw new UserException("Can't find DatasetInjector subclass with name '"
+            + className + "'", ex);
+      }
+      INJECTOR_CLASSES.put(className, injectorClass);
+    }
+    return injectorClass;
+  }
+
+  /**
+   * Construct a DatasetInjector subclass with its no-arg constructor, through
+   * a handle looked up once per class.
+   */
+  static DatasetInjector newInjector(Class<? extends DatasetInjector> injectorClass) {
+    return INJECTOR_FACTORIES.get(injectorClass).get();
+  }
+
+  /**
+   * Construct a subclass of DatasetInjector. Initialize the subclass's
+   * property values with those from this object.
    * 
    * Called at processing time.
    */
   DatasetInjector getDatasetInjector() {
-    DatasetInjector di = null;
-    Class<? extends DatasetInjector> injectorClass = null;
-    try {
-      injectorClass = Class.forName(datasetInjectorClassName).asSubclass(
-          DatasetInjector.class);
-      di = injectorClass.getDeclaredConstructor().newInstance();
-    }
-    catch (ClassNotFoundException | IllegalAccessException | InstantiationException |
-        IllegalArgumentException | InvocationTargetException |
-        NoSuchMethodException | SecurityException ex) {
-      throw new UserException("Can't find DatasetInjector subclass with name '"
-          + datasetInjectorClassName + "'", ex);
-    }
+    DatasetInjector di = newInjector(getInjectorClass(datasetInjectorClassName));
 
     di.addPropValues(propValues);
     di.setDatasetName(datasetName);
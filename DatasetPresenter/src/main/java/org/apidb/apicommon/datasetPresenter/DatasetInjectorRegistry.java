@@ -0,0 +1,99 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The DatasetInjector classes listed at build time by
+ * DatasetInjectorRegistryProcessor, read from the REGISTRY_RESOURCE of every
+ * jar and class directory on the classpath, once per process.
+ *
+ * The lists are kept per classpath root, so callers can take the listed
+ * injectors of the roots that have a registry and still scan the roots (jars
+ * or class directories) that were compiled without the processor.
+ */
+class DatasetInjectorRegistry {
+
+  static final String REGISTRY_RESOURCE = "META-INF/datasetInjectors";
+
+  private static class Holder {
+    static final Map<String, List<String>> CLASS_NAMES = readRegistries();
+  }
+
+  /**
+   * @return true if the classpath root (a jar or class directory) has a
+   *         registry resource
+   */
+  static boolean hasRegistry(URL root) {
+    return Holder.CLASS_NAMES.containsKey(getRootKey(root.toExternalForm()));
+  }
+
+  /**
+   * @return the injector classes listed by the registry of the classpath root
+   *         that are in the package or its subpackages
+   */
+  static List<Class<? extends DatasetInjector>> getInjectorClasses(URL root, String pack) {
+    List<Class<? extends DatasetInjector>> classes = new ArrayList<Class<? extends DatasetInjector>>();
+    List<String> classNames = Holder.CLASS_NAMES.get(getRootKey(root.toExternalForm()));
+    if (classNames == null) return classes;
+    for (String className : classNames) {
+      if (!className.startsWith(pack + ".")) continue;
+      try {
+        classes.add(Class.forName(className).asSubclass(DatasetInjector.class));
+      } catch (ClassNotFoundException | ClassCastException ex) {
+        throw new UserException("The injector registry of " + root + " lists " + className
+            + ", which can't be loaded as a DatasetInjector", ex);
+      }
+    }
+    return classes;
+  }
+
+  /**
+   * Reduce a classpath root, or a resource URL under it, to the same key:
+   * "jar:file:/a.jar!/", "file:/a.jar" and "file:/classes/" become
+   * "file:/a.jar" and "file:/classes".
+   */
+  static String getRootKey(String url) {
+    if (url.startsWith("jar:")) url = url.substring("jar:".length());
+    int entry = url.indexOf("!/");
+    if (entry >= 0) url = url.substring(0, entry);
+    while (url.endsWith("/")) url = url.substring(0, url.length() - 1);
+    return url;
+  }
+
+  private static Map<String, List<String>> readRegistries() {
+    Map<String, List<String>> registries = new HashMap<String, List<String>>();
+    try {
+      ClassLoader loader = DatasetInjectorRegistry.class.getClassLoader();
+      Enumeration<URL> resources = loader.getResources(REGISTRY_RESOURCE);
+      while (resources.hasMoreElements()) {
+        URL registry = resources.nextElement();
+        String url = registry.toExternalForm();
+        String root = getRootKey(url.substring(0, url.length() - REGISTRY_RESOURCE.length()));
+
+        TreeSet<String> classNames = new TreeSet<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            registry.openStream(), StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) classNames.add(line.trim());
+          }
+        }
+        registries.put(root, Collections.unmodifiableList(new ArrayList<String>(classNames)));
+      }
+    } catch (IOException ex) {
+      throw new UnexpectedException(ex);
+    }
+    return Collections.unmodifiableMap(registries);
+  }
+}
@@ -0,0 +1,135 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * An annotation processor that lists every concrete DatasetInjector subclass
+ * being compiled in the module's META-INF/datasetInjectors resource (see
+ * DatasetInjectorRegistry), so injectors can be found at runtime without
+ * scanning the classpath.
+ *
+ * It looks at all classes, annotated or not, and claims no annotations. An
+ * incremental build only compiles some of the sources, so the classes already
+ * listed in the class output are kept, unless they are gone or are no longer
+ * injectors.
+ *
+ * Modules that list injectors name it in the annotationProcessors of their
+ * maven-compiler-plugin; this module itself is compiled without annotation
+ * processing.
+ */
+@SupportedAnnotationTypes("*")
+public class DatasetInjectorRegistryProcessor extends AbstractProcessor {
+
+  private static final String INJECTOR_CLASS = "org.apidb.apicommon.datasetPresenter.DatasetInjector";
+
+  private final Set<String> _injectorClasses = new TreeSet<String>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement injectorType = processingEnv.getElementUtils().getTypeElement(INJECTOR_CLASS);
+    if (injectorType == null) return false;
+
+    TypeMirror injector = processingEnv.getTypeUtils().erasure(injectorType.asType());
+    if (roundEnv.processingOver()) {
+      Set<String> previous = readRegistry(injector);
+      if (previous != null) _injectorClasses.addAll(previous);
+      if (!_injectorClasses.isEmpty() || previous != null) writeRegistry();
+    }
+    else {
+      for (Element element : roundEnv.getRootElements()) {
+        collect(element, injector);
+      }
+    }
+    return false;
+  }
+
+  private void collect(Element element, TypeMirror injector) {
+    if (element.getKind() != ElementKind.CLASS) return;
+    TypeElement type = (TypeElement) element;
+    if (isInjector(type, injector))
+      _injectorClasses.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+
+    for (Element enclosed : type.getEnclosedElements()) {
+      collect(enclosed, injector);
+    }
+  }
+
+  private boolean isInjector(TypeElement type, TypeMirror injector) {
+    Types types = processingEnv.getTypeUtils();
+
+    // inner (non static) classes can't be created by the no-arg constructor
+    boolean inner = type.getNestingKind() == NestingKind.MEMBER
+        && !type.getModifiers().contains(Modifier.STATIC);
+    return !inner && !type.getModifiers().contains(Modifier.ABSTRACT)
+        && types.isSubtype(types.erasure(type.asType()), injector);
+  }
+
+  /**
+   * @return the classes listed by the registry already in the class output
+   *         that are still injectors, or null if there is no registry
+   */
+  private Set<String> readRegistry(TypeMirror injector) {
+    Set<String> injectorClasses = new TreeSet<String>();
+    try {
+      FileObject registry = processingEnv.getFiler().getResource(
+          StandardLocation.CLASS_OUTPUT, "", DatasetInjectorRegistry.REGISTRY_RESOURCE);
+      try (Reader reader = registry.openReader(true);
+          BufferedReader lines = new BufferedReader(reader)) {
+        String line;
+        while ((line = lines.readLine()) != null) {
+          String className = line.trim();
+          if (className.isEmpty()) continue;
+          // nested classes are listed by binary name; the lookup wants the canonical one
+          TypeElement type = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.'));
+          if (type != null && isInjector(type, injector))
+            injectorClasses.add(className);
+        }
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      // no registry written yet
+      return null;
+    }
+    return injectorClasses;
+  }
+
+  private void writeRegistry() {
+    try {
+      FileObject registry = processingEnv.getFiler().createResource(
+          StandardLocation.CLASS_OUTPUT, "", DatasetInjectorRegistry.REGISTRY_RESOURCE);
+      try (Writer writer = registry.openWriter()) {
+        for (String injectorClass : _injectorClasses) {
+          writer.write(injectorClass);
+          writer.write('\n');
+        }
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Can't write " + DatasetInjectorRegistry.REGISTRY_RESOURCE + ": " + e.getMessage());
+    }
+  }
+}
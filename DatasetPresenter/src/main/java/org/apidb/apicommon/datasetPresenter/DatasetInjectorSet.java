@@ -1,7 +1,16 @@
 package org.apidb.apicommon.datasetPresenter;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A set of DatasetInjector subclasses. This set has the information needed to
@@ -9,6 +18,22 @@ import java.util.List;
  * through its members asking them to construct the template instances they need
  * to inject.
  * 
+ * The injectors are run concurrently, on a pool of threads of the set's own
+ * that each run one injector at a time (not the common fork/join pool, whose
+ * threads may pick up another task while one waits). Each injector collects
+ * its TemplateInstances in a buffer local to the thread running it, and the
+ * buffers are merged in the
+ * order the injectors were added, so the TemplateInstanceSet (and the text made
+ * from it) is the same as if they had been run one after another. See
+ * {@link DatasetInjector#injectTemplates()} for what this requires of
+ * injectors.
+ * 
+ * The set also holds the AggregateDatasetInjectors its injectors ask for, one
+ * of each class, which are run once each after the injectors.
+ * 
+ * Given an output cache dir, injectors whose inputs are unchanged since an
+ * earlier run are replayed from the InjectorOutputCache instead of run.
+ * 
  * @author steve
  * 
  */
@@ -16,6 +41,13 @@ public class DatasetInjectorSet {
 
   private List<DatasetInjector> datasetInjectors = new ArrayList<DatasetInjector>();
   private TemplateInstanceSet templateInstanceSet;
+  private File outputCacheDir;
+  private Map<String, DatasetInjector> datasetInjectorsByName = new LinkedHashMap<String, DatasetInjector>();
+  private Map<Class<? extends AggregateDatasetInjector>, AggregateDatasetInjector> aggregateInjectors =
+      new LinkedHashMap<Class<? extends AggregateDatasetInjector>, AggregateDatasetInjector>();
+
+  // the instances injected by the injector running on this thread
+  private final ThreadLocal<List<TemplateInstance>> injectedInstances = new ThreadLocal<List<TemplateInstance>>();
 
   /**
    * Add a member to this set.
@@ -24,7 +56,59 @@ public class DatasetInjectorSet {
    */
   void addDatasetInjector(DatasetInjector datasetInjector) {
     datasetInjectors.add(datasetInjector);
+    datasetInjectorsByName.put(datasetInjector.getDatasetName(), datasetInjector);
     datasetInjector.setDatasetInjectorSet(this);
+
+    Class<? extends AggregateDatasetInjector> aggregateClass = datasetInjector.getAggregateInjectorClass();
+    if (aggregateClass != null && !aggregateInjectors.containsKey(aggregateClass)) {
+      AggregateDatasetInjector aggregateInjector = newAggregateInjector(aggregateClass);
+      aggregateInjector.setGlobalDatasetPropertyIndex(datasetInjector.getGlobalDatasetPropertyIndex());
+      aggregateInjector.setPresenterInjector(datasetInjector);
+      addAggregateInjector(aggregateInjector);
+    }
+  }
+
+  /**
+   * Add an aggregate injector, to be run once, after the injectors. Only one
+   * of each class is kept.
+   * 
+   * Called at processing time.
+   */
+  void addAggregateInjector(AggregateDatasetInjector aggregateInjector) {
+    if (aggregateInjectors.containsKey(aggregateInjector.getClass())) return;
+    aggregateInjectors.put(aggregateInjector.getClass(), aggregateInjector);
+    aggregateInjector.setDatasetInjectorSet(this);
+  }
+
+  /**
+   * Replay the output of unchanged injectors from the cache in the dir, and
+   * cache the output of those that are run.
+   * 
+   * Called at processing time.
+   */
+  void setOutputCacheDir(File outputCacheDir) {
+    this.outputCacheDir = outputCacheDir;
+  }
+
+  // the injectors share the global properties and templates, so take them from any
+  private InjectorOutputCache newOutputCache() {
+    GlobalDatasetPropertyIndex globalPropertyIndex = null;
+    TemplateSet templateSet = null;
+    for (DatasetInjector datasetInjector : datasetInjectors) {
+      if (globalPropertyIndex == null) globalPropertyIndex = datasetInjector.getGlobalDatasetPropertyIndex();
+      if (templateSet == null) templateSet = datasetInjector.getTemplateSet();
+    }
+    return new InjectorOutputCache(outputCacheDir, globalPropertyIndex, templateSet);
+  }
+
+  private static AggregateDatasetInjector newAggregateInjector(Class<? extends AggregateDatasetInjector> aggregateClass) {
+    try {
+      return aggregateClass.getConstructor().newInstance();
+    }
+    catch (ReflectiveOperationException ex) {
+      throw new UserException("Can't construct AggregateDatasetInjector subclass "
+          + aggregateClass.getName() + "; it needs a public no-arg constructor", ex);
+    }
   }
 
 
@@ -32,34 +116,144 @@ public class DatasetInjectorSet {
         return(this.datasetInjectors);
     }
 
+  List<String> getDatasetNames() {
+    return new ArrayList<String>(datasetInjectorsByName.keySet());
+  }
+
+  DatasetInjector getDatasetInjector(String datasetName) {
+    return datasetInjectorsByName.get(datasetName);
+  }
+
 
 
   /**
    * Transform this DatasetInjectorSet into a TemplateInstanceSet. Calls each
-   * injector and asks it construct TemplateInstances and add them to the
-   * TemplateInstanceSet
+   * injector, in parallel, and asks it construct TemplateInstances; they are
+   * added to the TemplateInstanceSet in injector order. Then the aggregate
+   * injectors are called, once each, and their instances added.
    * 
    * Called at processing time.
    * 
    */
   TemplateInstanceSet getTemplateInstanceSet() {
     if (templateInstanceSet == null) {
-      templateInstanceSet = new TemplateInstanceSet();
-      for (DatasetInjector datasetInjector : datasetInjectors) {
-        datasetInjector.injectTemplates();
+      InjectorOutputCache outputCache = outputCacheDir == null ? null : newOutputCache();
+      List<List<TemplateInstance>> injected = injectTemplates(outputCache);
+      if (outputCache != null) {
+        int evicted = outputCache.evictUnused();
+        System.err.println(outputCache.getStats() + ", " + evicted + " unused entries deleted");
       }
+      for (AggregateDatasetInjector aggregateInjector : aggregateInjectors.values()) {
+        injected.add(injectTemplates(aggregateInjector::injectPresenterTemplates));
+      }
+      TemplateInstanceSet instanceSet = new TemplateInstanceSet();
+      for (List<TemplateInstance> templateInstances : injected) {
+        for (TemplateInstance templateInstance : templateInstances) {
+          instanceSet.addTemplateInstance(templateInstance);
+        }
+      }
+      templateInstanceSet = instanceSet;
     }
     return templateInstanceSet;
   }
 
+  /**
+   * Run the injectors on a pool of their own.
+   * 
+   * @return the template instances each injected, in injector order, whatever
+   *         order they finish in
+   */
+  private List<List<TemplateInstance>> injectTemplates(InjectorOutputCache outputCache) {
+    List<List<TemplateInstance>> injected = new ArrayList<List<TemplateInstance>>();
+    if (datasetInjectors.isEmpty()) return injected;
+
+    int threads = Math.min(datasetInjectors.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<List<TemplateInstance>>> results = new ArrayList<Future<List<TemplateInstance>>>();
+      for (DatasetInjector datasetInjector : datasetInjectors) {
+        results.add(executor.submit(() -> injectTemplates(datasetInjector, outputCache)));
+      }
+      for (Future<List<TemplateInstance>> result : results) {
+        injected.add(result.get());
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error) throw (Error) e.getCause();
+      throw new UnexpectedException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnexpectedException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return injected;
+  }
+
+  /**
+   * Run one injector, or aggregate, on this thread.
+   * 
+   * @return the template instances it injected, in order
+   */
+  private List<TemplateInstance> injectTemplates(DatasetInjector datasetInjector,
+      InjectorOutputCache outputCache) {
+    String key = outputCache == null ? null : outputCache.getKey(datasetInjector);
+    if (key == null) return injectTemplates(datasetInjector::injectTemplates);
+
+    List<TemplateInstance> cached = outputCache.get(key, datasetInjector);
+    if (cached != null) return cached;
+
+    List<TemplateInstance> templateInstances;
+    Set<String> reads;
+    Set<String> outerReads = GlobalPropertyReads.start();
+    try {
+      templateInstances = injectTemplates(datasetInjector::injectTemplates);
+    } finally {
+      reads = GlobalPropertyReads.stop(outerReads);
+    }
+    outputCache.put(key, datasetInjector, reads, templateInstances);
+    return templateInstances;
+  }
+
+  private List<TemplateInstance> injectTemplates(Runnable injector) {
+    List<TemplateInstance> templateInstances = new ArrayList<TemplateInstance>();
+    List<TemplateInstance> outer = injectedInstances.get();
+    injectedInstances.set(templateInstances);
+    try {
+      injector.run();
+    } finally {
+      // put back the buffer of any injector this one is nested in
+      if (outer == null) injectedInstances.remove();
+      else injectedInstances.set(outer);
+    }
+    return templateInstances;
+  }
+
+  /**
+   * Inject an instance of the template, with a copy of the property values
+   * (see TemplateInstance), into the TemplateInstanceSet this
+   * DatasetInjectorSet is constructing. Called by the injectors'
+   * injectTemplate().
+   * 
+   * Called at processing time.
+   */
+  void injectTemplate(String templateName, Map<String, String> propValues) {
+    injectTemplateInstance(new TemplateInstance(templateName, Collections.unmodifiableMap(propValues)));
+  }
+
   /**
    * Inject a template instance into the TemplateInstanceSet this
-   * DatasetInjectorSet is constructing.
+   * DatasetInjectorSet is constructing. Must be called on the thread running
+   * the injector, from its injectTemplates().
    * 
    * Called at processing time.
    */
   void injectTemplateInstance(TemplateInstance templateInstance) {
-    templateInstanceSet.addTemplateInstance(templateInstance);
+    List<TemplateInstance> templateInstances = injectedInstances.get();
+    if (templateInstances == null)
+      throw new UnexpectedException("Template instance " + templateInstance.getTemplateName()
+          + " was injected outside of injectTemplates(), or from another thread");
+    templateInstances.add(templateInstance);
   }
   
 }
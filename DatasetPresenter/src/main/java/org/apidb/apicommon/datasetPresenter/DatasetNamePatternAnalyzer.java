@@ -0,0 +1,137 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds DatasetPresenters and InternalDatasets whose dataset names or
+ * datasetNamePatterns could claim the same Apidb.Datasource row, without
+ * looking at the database. (Presenters with an override are meant to overlap
+ * the dataset they override, and are left out.) Patterns that could overlap
+ * may never match the same real name, so this is an opt-in check
+ * (presenterWriteToDb -checkPatternOverlap); validation itself rejects only
+ * Datasource rows claimed twice.
+ *
+ * Patterns use SQL LIKE wildcards: '%' for any string and '_' for any one
+ * char. Two patterns overlap if some name matches both. Only pairs whose
+ * literal prefixes (up to the first wildcard) are prefixes of one another can
+ * overlap; sorted by prefix, those pairs are adjacent runs, so most pairs are
+ * never compared. Candidate pairs with compatible literal suffixes are then
+ * checked exactly by running the two patterns' automata in step
+ * (intersectionIsEmpty).
+ */
+class DatasetNamePatternAnalyzer {
+
+  private static class Entry {
+    final String owner;
+    final String pattern;
+    final String prefix;
+    final String suffix;
+
+    Entry(String owner, String pattern) {
+      this.owner = owner;
+      this.pattern = pattern;
+      this.prefix = DatasourceSnapshot.getLiteralPrefix(pattern);
+      this.suffix = getLiteralSuffix(pattern);
+    }
+  }
+
+  private final List<Entry> _entries = new ArrayList<Entry>();
+
+  DatasetNamePatternAnalyzer(DatasetPresenterSet dps) {
+    for (DatasetPresenter presenter : dps.getDatasetPresenters().values()) {
+      if (presenter.getOverride() != null) continue;
+      String pattern = presenter.getDatasetNamePattern() == null
+          ? presenter.getDatasetName() : presenter.getDatasetNamePattern();
+      _entries.add(new Entry("DatasetPresenter \"" + presenter.getDatasetName() + "\"", pattern));
+    }
+    for (InternalDataset internalDataset : dps.getInternalDatasets().values()) {
+      String pattern = internalDataset.getDatasetNamePattern() == null
+          ? internalDataset.getName() : internalDataset.getDatasetNamePattern();
+      _entries.add(new Entry("InternalDataset \"" + internalDataset.getName() + "\"", pattern));
+    }
+  }
+
+  /**
+   * @return a description of every pair of overlapping names or patterns
+   */
+  List<String> findConflicts() {
+    List<Entry> entries = new ArrayList<Entry>(_entries);
+    Collections.sort(entries, Comparator.comparing((Entry e) -> e.prefix));
+
+    List<String> conflicts = new ArrayList<String>();
+    for (int i = 0; i < entries.size(); i++) {
+      Entry first = entries.get(i);
+      // the entries whose prefix extends this one's follow it directly
+      for (int j = i + 1; j < entries.size() && entries.get(j).prefix.startsWith(first.prefix); j++) {
+        Entry second = entries.get(j);
+        if (!first.suffix.endsWith(second.suffix) && !second.suffix.endsWith(first.suffix))
+          continue;
+        if (!intersectionIsEmpty(first.pattern, second.pattern))
+          conflicts.add(first.owner + " (\"" + first.pattern + "\") and "
+              + second.owner + " (\"" + second.pattern + "\") can claim the same dataset name");
+      }
+    }
+    return conflicts;
+  }
+
+  static String getLiteralSuffix(String likePattern) {
+    int i = likePattern.length();
+    while (i > 0 && likePattern.charAt(i - 1) != '%' && likePattern.charAt(i - 1) != '_')
+      i--;
+    return likePattern.substring(i);
+  }
+
+  /**
+   * @return true if no string is LIKE both patterns.  Explores the pairs of
+   *         positions the two patterns can reach after reading a common
+   *         string; O(length of p * length of q).
+   */
+  static boolean intersectionIsEmpty(String p, String q) {
+    int m = p.length(), n = q.length();
+    boolean[][] reached = new boolean[m + 1][n + 1];
+    int[] stack = new int[(m + 1) * (n + 1)];
+    int top = 0;
+    reached[0][0] = true;
+    stack[top++] = 0;
+    while (top > 0) {
+      int state = stack[--top];
+      int i = state / (n + 1), j = state % (n + 1);
+      if (i == m && j == n) return false;
+
+      char a = i < m ? p.charAt(i) : 0;
+      char b = j < n ? q.charAt(j) : 0;
+
+      // a '%' may match nothing more
+      if (a == '%') top = visit(reached, stack, top, i + 1, j, n);
+      if (b == '%') top = visit(reached, stack, top, i, j + 1, n);
+
+      // or both sides read one char
+      if (i < m && j < n) {
+        if (a == '%' && b == '%') {
+          continue;
+        }
+        else if (a == '%') {
+          top = visit(reached, stack, top, i, j + 1, n);
+        }
+        else if (b == '%') {
+          top = visit(reached, stack, top, i + 1, j, n);
+        }
+        else if (a == '_' || b == '_' || a == b) {
+          top = visit(reached, stack, top, i + 1, j + 1, n);
+        }
+      }
+    }
+    return true;
+  }
+
+  private static int visit(boolean[][] reached, int[] stack, int top, int i, int j, int n) {
+    if (!reached[i][j]) {
+      reached[i][j] = true;
+      stack[top++] = i * (n + 1) + j;
+    }
+    return top;
+  }
+}
@@ -22,7 +22,7 @@ import org.apache.commons.codec.digest.DigestUtils;
  * @author steve
  * 
  */
-public class DatasetPresenter {
+public class DatasetPresenter implements Cloneable {
   private static final Logger LOG = Logger.getLogger(DatasetPresenter.class);
 
   // use prop values for properties that might be injected into templates.
@@ -60,6 +60,31 @@ public class DatasetPresenter {
         this.datasetNamesFromPattern.add(datasetName);
     }
 
+  /**
+   * Copy a presenter that has not yet been synced with a database, so that
+   * one parsed set can be synced and loaded against several instances (each
+   * copy picks up its own Datasource matches, contacts and injector).
+   * Publications, histories and links are shared, so each citation is
+   * looked up only once.
+   */
+  DatasetPresenter copy() {
+    try {
+      DatasetPresenter copy = (DatasetPresenter) super.clone();
+      copy.propValues = new HashMap<String, String>(propValues);
+      copy.contactIds = new ArrayList<String>(contactIds);
+      copy.publications = new ArrayList<Publication>(publications);
+      copy.histories = new ArrayList<History>(histories);
+      copy.links = new ArrayList<HyperLink>(links);
+      copy.nameTaxonPairs = new HashMap<String, NameTaxonPair>(nameTaxonPairs);
+      copy.datasetNamesFromPattern = new ArrayList<String>(datasetNamesFromPattern);
+      if (datasetInjectorConstructor != null)
+        copy.datasetInjectorConstructor = datasetInjectorConstructor.copy();
+      return copy;
+    } catch (CloneNotSupportedException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
   void setFoundInDb() {
     foundInDb = true;
   }
@@ -0,0 +1,353 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.gusdb.fgputil.CliUtil;
+import org.gusdb.fgputil.xml.Text;
+
+/**
+ * Measures DatasetPresenterSetLoader throughput without an Oracle instance.
+ *
+ * The benchmark creates an embedded H2 database (Oracle mode) holding a fake
+ * Apidb.Datasource and a citation cache (so no NCBI lookups happen), and a
+ * synthetic DatasetPresenterSet of the requested size. Each presenter has a
+ * datasetNamePattern matching several Datasource rows, contacts,
+ * publications, history, links and a TestInjector (for property and model
+ * reference rows). It then times:
+ * <ul>
+ * <li>sync: syncPresenterSetWithDatasetTable()</li>
+ * <li>rows: building (and digesting) each presenter's rows</li>
+ * <li>each table on its own, through EmbeddedPresenterRowSink</li>
+ * <li>load: a full loadDatasetPresenterSet() into fresh tables</li>
+ * </ul>
+ * and prints rows per second for each. With -normalized it loads the
+ * normalized layout (see PresenterTable), so the two can be compared.
+ *
+ * Run it with the presenterLoaderBenchmark wrapper, eg
+ * <code>presenterLoaderBenchmark -presenters 5000</code>. It needs no network
+ * or database, only H2 on the classpath (an optional dependency of this
+ * module). It is a tool whose timings are read by hand, not a pass/fail
+ * check, so it lives with the other main classes rather than in src/test.
+ */
+public class DatasetPresenterLoaderBenchmark {
+
+  private static final String SCHEMA = "BENCH";
+  private static final String TYPE = "rnaseq";
+  private static final String SUBTYPE = "benchmark";
+
+  private static final int CONTACTS = 50;
+  private static final int CONTACTS_PER_PRESENTER = 2;
+  private static final int PUBLICATIONS_PER_PRESENTER = 2;
+  private static final int HISTORIES_PER_PRESENTER = 2;
+  private static final int LINKS_PER_PRESENTER = 2;
+
+  private final int _presenterCount;
+  private final int _datasetsPerPresenter;
+  private final String _url;
+  private final boolean _normalized;
+
+  DatasetPresenterLoaderBenchmark(int presenterCount, int datasetsPerPresenter,
+      String url, boolean normalized) {
+    _presenterCount = presenterCount;
+    _datasetsPerPresenter = datasetsPerPresenter;
+    _url = url;
+    _normalized = normalized;
+  }
+
+  void run() throws SQLException {
+    System.err.println("Benchmarking DatasetPresenterSetLoader with " + _presenterCount
+        + " presenters of " + _datasetsPerPresenter + " datasets each in " + _url
+        + (_normalized ? " (normalized layout)" : ""));
+
+    // held open for the whole run, so an in-memory database lasts
+    String url = _url.contains(";MODE=") ? _url : _url + ";MODE=Oracle";
+    Connection connection = DriverManager.getConnection(url, "sa", "");
+    createSourceTables(connection);
+    dropPresenterTables(connection);
+
+    DatasetPresenterSetLoader loader = new DatasetPresenterSetLoader(
+        createConfiguration(), createContacts(), createDefaultLinks(),
+        () -> DriverManager.getConnection(url, "sa", ""), "embedded benchmark", "1");
+    DatasetPresenterSet dps = createPresenterSet();
+    loader.setDatasetPresenterSet(dps);
+    loader.setNormalized(_normalized);
+
+    long start = System.currentTimeMillis();
+    loader.validate();
+    report("sync", _presenterCount, System.currentTimeMillis() - start);
+
+    start = System.currentTimeMillis();
+    PreparedStatement pubmedQuery = loader.getPubmedQuery();
+    List<PresenterRows> allRows = new ArrayList<PresenterRows>();
+    int rowCount = 0;
+    for (DatasetPresenter datasetPresenter : dps.getDatasetPresenters().values()) {
+      PresenterRows rows = loader.getPresenterRows(datasetPresenter, pubmedQuery);
+      rowCount += rows.getRowCount();
+      allRows.add(rows);
+    }
+    report("rows", rowCount, System.currentTimeMillis() - start);
+
+    // each table on its own, so its rate is not mixed with the others'
+    PresenterRowSink sink = new EmbeddedPresenterRowSink(_url, SCHEMA, "1", _normalized);
+    try {
+      for (PresenterTable table : PresenterTable.getTables(_normalized)) {
+        start = System.currentTimeMillis();
+        int tableRows = 0;
+        for (PresenterRows rows : allRows) {
+          PresenterRows tableOnly = new PresenterRows(rows.getPresenterId());
+          for (Object[] row : rows.getRows(table)) {
+            tableOnly.addRow(table, row);
+          }
+          tableRows += tableOnly.getRowCount();
+          sink.write(tableOnly);
+        }
+        sink.commit();
+        report(table.getBaseName(), tableRows, System.currentTimeMillis() - start);
+      }
+    } finally {
+      sink.close();
+    }
+
+    // closes the loader's connection
+    loader.setRowSink(new EmbeddedPresenterRowSink(_url, SCHEMA, "2", _normalized));
+    start = System.currentTimeMillis();
+    loader.loadDatasetPresenterSet();
+    report("load", rowCount, System.currentTimeMillis() - start);
+    connection.close();
+  }
+
+  private static void report(String phase, int rows, long millis) {
+    double perSecond = millis == 0 ? rows * 1000.0 : rows * 1000.0 / millis;
+    System.out.println(String.format("%-25s %10d rows %8d ms %12.0f rows/sec",
+        phase, rows, millis, perSecond));
+  }
+
+  private void createSourceTables(Connection connection) throws SQLException {
+    try (Statement stmt = connection.createStatement()) {
+      stmt.execute("CREATE SCHEMA IF NOT EXISTS apidb");
+      stmt.execute("DROP TABLE IF EXISTS apidb.datasource");
+      stmt.execute("CREATE TABLE apidb.datasource (name varchar2(200), "
+          + "taxon_id number(12), type varchar2(50), subtype varchar2(50), "
+          + "is_species_scope number(1))");
+      stmt.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+      stmt.execute("DROP TABLE IF EXISTS " + SCHEMA + ".datasetPublication");
+      stmt.execute("CREATE TABLE " + SCHEMA + ".datasetPublication "
+          + "(pmid varchar2(20), citation varchar2(4000))");
+    }
+
+    try (PreparedStatement insert = connection.prepareStatement(
+        "INSERT INTO apidb.datasource VALUES (?, ?, ?, ?, 0)")) {
+      for (int i = 0; i < _presenterCount; i++) {
+        for (int j = 0; j < _datasetsPerPresenter; j++) {
+          insert.setString(1, getDatasetName(i) + "-" + j);
+          insert.setInt(2, 5000 + j);
+          insert.setString(3, TYPE);
+          insert.setString(4, SUBTYPE);
+          insert.addBatch();
+        }
+        insert.executeBatch();
+      }
+    }
+
+    try (PreparedStatement insert = connection.prepareStatement(
+        "INSERT INTO " + SCHEMA + ".datasetPublication VALUES (?, ?)")) {
+      for (int i = 0; i < _presenterCount * PUBLICATIONS_PER_PRESENTER; i++) {
+        insert.setString(1, getPubmedId(i));
+        insert.setString(2, "Author A, Author B. A synthetic citation number "
+            + i + ". Journal of Benchmarks. 2020;" + i + ":1-10.");
+        insert.addBatch();
+      }
+      insert.executeBatch();
+    }
+  }
+
+  // left over from an earlier run against a file database
+  private static void dropPresenterTables(Connection connection) throws SQLException {
+    try (Statement stmt = connection.createStatement()) {
+      for (String suffix : new String[] { "1", "2" }) {
+        for (PresenterTable table : PresenterTable.values()) {
+          // left by an earlier run of the other layout, the table may be a view
+          try {
+            stmt.execute("DROP VIEW IF EXISTS " + table.getTableName(SCHEMA, suffix));
+          } catch (SQLException e) {
+            // it is a table
+          }
+          stmt.execute("DROP TABLE IF EXISTS " + table.getTableName(SCHEMA, suffix));
+          stmt.execute("DROP SEQUENCE IF EXISTS " + table.getTableName(SCHEMA, suffix) + "_sq");
+        }
+      }
+    }
+  }
+
+  private DatasetPresenterSet createPresenterSet() {
+    DatasetPresenterSet dps = new DatasetPresenterSet();
+    for (int i = 0; i < _presenterCount; i++) {
+      DatasetPresenter dp = new DatasetPresenter();
+      dp.setName(getDatasetName(i));
+      dp.setDatasetNamePattern(getDatasetName(i) + "-%");
+      dp.setDatasetDisplayName(text("Benchmark dataset " + i));
+      dp.setDatasetShortDisplayName(text("Bench " + i));
+      dp.setShortAttribution(text("Benchmark Lab"));
+      dp.setSummary(text("Synthetic dataset " + i + " for loader benchmarks."));
+      dp.setDatasetDescrip(text(repeat("A synthetic description of dataset " + i + ". ", 40)));
+      dp.setProtocol(text(repeat("Protocol step. ", 20)));
+      dp.setCaveat(text("None"));
+      dp.setAcknowledgement(text("Thanks"));
+      dp.setReleasePolicy(text("Public"));
+      dp.setDisplayCategory(text("Transcriptomics"));
+
+      dp.setPrimaryContactId(text(getContactId(i % CONTACTS)));
+      for (int j = 1; j < CONTACTS_PER_PRESENTER; j++) {
+        dp.addContactId(text(getContactId((i + j) % CONTACTS)));
+      }
+
+      for (int j = 0; j < PUBLICATIONS_PER_PRESENTER; j++) {
+        Publication pub = new Publication();
+        pub.setPubmedId(getPubmedId(i * PUBLICATIONS_PER_PRESENTER + j));
+        dp.addPublication(pub);
+      }
+
+      for (int j = 0; j < HISTORIES_PER_PRESENTER; j++) {
+        History history = new History();
+        history.setBuildNumber(Float.valueOf(10 + j));
+        history.setGenomeSource("Benchmark");
+        history.setGenomeVersion("v" + j);
+        history.setComment(j == 0 ? null : "Revision " + j);
+        dp.addHistory(history);
+      }
+
+      for (int j = 0; j < LINKS_PER_PRESENTER; j++) {
+        HyperLink link = new HyperLink();
+        link.setText(text("Link " + j));
+        link.setDescription(text("Link " + j + " of dataset " + i));
+        link.setUrl(text("https://example.org/" + getDatasetName(i) + "/" + j));
+        link.setIsPublication("no");
+        dp.addLink(link);
+      }
+
+      DatasetInjectorConstructor injector = new DatasetInjectorConstructor();
+      injector.setClassName(TestInjector.class.getName());
+      dp.setDatasetInjector(injector);
+
+      dps.addDatasetPresenter(dp);
+    }
+    return dps;
+  }
+
+  private static Configuration createConfiguration() {
+    Configuration config = new Configuration();
+    config.setUsername(text(SCHEMA));
+    config.setPassword(text(""));
+    return config;
+  }
+
+  private static Contacts createContacts() {
+    Contacts contacts = new Contacts();
+    contacts.setContactsFileName("(benchmark contacts)");
+    for (int i = 0; i < CONTACTS; i++) {
+      Contact contact = new Contact();
+      contact.setContactId(text(getContactId(i)));
+      contact.setName(text("Contact " + i));
+      contact.setEmail(text("contact" + i + "@example.org"));
+      contact.setInstitution(text("Institute " + i));
+      contact.setCity(text("City"));
+      contact.setCountry(text("Country"));
+      contacts.addContact(contact);
+    }
+    return contacts;
+  }
+
+  private static HyperLinks createDefaultLinks() {
+    HyperLinks links = new HyperLinks();
+    HyperLink link = new HyperLink();
+    link.setType(TYPE);
+    link.setSubtype(SUBTYPE);
+    link.setText(text("Default link"));
+    link.setDescription(text("A default link for " + TYPE + "." + SUBTYPE));
+    link.setUrl(text("https://example.org/default"));
+    link.setIsPublication("no");
+    links.addHyperLink(link);
+    return links;
+  }
+
+  // fixed width, so one presenter's pattern never matches another's datasets
+  private static String getDatasetName(int i) {
+    return String.format("bench-%07d", i);
+  }
+
+  private static String getContactId(int i) {
+    return "contact" + i;
+  }
+
+  private static String getPubmedId(int i) {
+    return Integer.toString(10000000 + i);
+  }
+
+  private static Text text(String value) {
+    Text text = new Text();
+    text.setText(value);
+    return text;
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < times; i++)
+      buf.append(s);
+    return buf.toString();
+  }
+
+  // ///////////// Static methods //////////////////////////////
+
+  private static Options declareOptions() {
+    Options options = new Options();
+
+    CliUtil.addOption(options, "presenters",
+        "the number of synthetic DatasetPresenters to load (default 1000)",
+        false, true);
+
+    CliUtil.addOption(options, "datasetsPerPresenter",
+        "the number of Apidb.Datasource rows each presenter's datasetNamePattern matches (default 3)",
+        false, true);
+
+    CliUtil.addOption(options, "url",
+        "the H2 JDBC url of the embedded database (default " + EmbeddedPresenterRowSink.DEFAULT_URL + ")",
+        false, true);
+
+    CliUtil.addOption(options, "normalized",
+        "load the normalized layout, with shared contact and hyperlink rows", false, false);
+
+    return options;
+  }
+
+  public static void main(String[] args) {
+    String cmdName = System.getProperty("cmdName");
+    String cmdlineSyntax = cmdName
+        + " [-presenters count] [-datasetsPerPresenter count] [-url h2_url] [-normalized]";
+    String cmdDescrip = "Measure DatasetPresenter loader throughput against an embedded database with synthetic presenters.";
+    CommandLine cmdLine = CliUtil.parseOptions(cmdlineSyntax, cmdDescrip,
+        NL, declareOptions(), args);
+
+    try {
+      new DatasetPresenterLoaderBenchmark(
+          Integer.parseInt(cmdLine.getOptionValue("presenters", "1000")),
+          Integer.parseInt(cmdLine.getOptionValue("datasetsPerPresenter", "3")),
+          cmdLine.getOptionValue("url", EmbeddedPresenterRowSink.DEFAULT_URL),
+          cmdLine.hasOption("normalized")).run();
+    } catch (UserException ex) {
+      System.err.println(NL + "Error: " + ex.getMessage() + NL);
+      System.exit(1);
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+}
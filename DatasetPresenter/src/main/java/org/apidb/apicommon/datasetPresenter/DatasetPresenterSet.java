@@ -96,6 +96,24 @@ public class DatasetPresenterSet {
     }
   }
 
+  /**
+   * Copy this set before it is synced with a database (see
+   * DatasetPresenter.copy()).
+   */
+  DatasetPresenterSet copy() {
+    DatasetPresenterSet copy = new DatasetPresenterSet();
+    for (DatasetPresenter presenter : _presenters.values()) {
+      copy._presenters.put(presenter.getDatasetName(), presenter.copy());
+    }
+    for (InternalDataset internalDataset : _internalDatasets.values()) {
+      copy._internalDatasets.put(internalDataset.getName(), internalDataset.copy());
+    }
+    copy._namePatterns.addAll(_namePatterns);
+    copy._propertiesFromFiles = _propertiesFromFiles;
+    copy._duplicateDatasetNames = _duplicateDatasetNames;
+    return copy;
+  }
+
   int getSize() {
     return _presenters.size();
   }
@@ -122,7 +140,11 @@ public class DatasetPresenterSet {
     }
   }
   
-  void handleOverrides() {
+  /**
+   * Drop the dataset names claimed by overriding presenters from the
+   * presenters they override. Problems are added to errors.
+   */
+  void handleOverrides(ValidationErrors errors) {
     for (DatasetPresenter datasetPresenter : _presenters.values()) {
       String override = datasetPresenter.getOverride();
       if (override != null) {
@@ -136,7 +158,7 @@ public class DatasetPresenterSet {
         } else if (overriddenIntD != null) {
           if (!overriddenIntD.containsNameFromDb(datasetName)) System.err.println("WARN:  " + partialErrMsg + " but the overridden InternalDataset is not found in this instance"); 
         } else {
-          throw new UserException(partialErrMsg + " but no DatasetPresenter or InternalDataset has that name" );
+          errors.add("DatasetPresenter " + datasetName, partialErrMsg + " but no DatasetPresenter or InternalDataset has that name" );
         }
       }
     }        
@@ -2,6 +2,7 @@ package org.apidb.apicommon.datasetPresenter;
 
 import static org.gusdb.fgputil.FormatUtil.NL;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -9,9 +10,22 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
@@ -24,10 +38,37 @@ public class DatasetPresenterSetLoader {
 
   private static final Logger LOG = Logger.getLogger(DatasetPresenterSetLoader.class);
 
+  static final String SINK_JDBC = "jdbc";
+  static final String SINK_FILES = "files";
+  static final String SINK_EMBEDDED = "embedded";
+
+  // outside diff mode, commit after this many presenters, so a failed load
+  // can be resumed (see setResumeMode)
+  static final int CHECKPOINT_INTERVAL = 100;
+
+  static final int VARCHAR_BYTES = 4000;
+
+  // presenters prepared ahead of the one being written (see
+  // loadDatasetPresenterSet)
+  static final int PIPELINE_DEPTH = 100;
+
+  // exit status when validation finds problems in the presenters (other
+  // errors exit with 1)
+  static final int EXIT_INVALID = 2;
+
   private Contacts allContacts;
   private HyperLinks defaultHyperLinks;
 
+  /**
+   * Opens connections to a database other than an Oracle instance (see
+   * DatasetPresenterLoaderBenchmark).
+   */
+  interface ConnectionFactory {
+    Connection open() throws SQLException;
+  }
+
   private Connection dbConnection;
+  private ConnectionFactory connectionFactory;
   private Configuration config;
   private String instance;
   private String propFileName;
@@ -36,6 +77,16 @@ public class DatasetPresenterSetLoader {
   private String suffix;
   private String login;
   private DatasetPresenterSet dps = null;
+  private boolean diffMode = false;
+  private boolean resumeMode = false;
+  private boolean normalized = false;
+  private boolean staged = false;
+  private boolean checkPatternOverlap = false;
+  private PresenterRowSink rowSink;
+  private final LoaderMetrics metrics;
+  private String datasourceSnapshotFile;
+  private boolean offline = false;
+  private DatasourceSnapshot datasourceSnapshot;
 
   public DatasetPresenterSetLoader(String propFileName,
       String contactsFileName, String defaultInjectorsFileName,
@@ -53,6 +104,30 @@ public class DatasetPresenterSetLoader {
     this.propFileName = propFileName;
     this.suffix = suffix;
     this.defaultInjectorsFileName = defaultInjectorsFileName;
+    this.metrics = new LoaderMetrics(instance);
+  }
+
+  /**
+   * Construct a loader from already parsed inputs.  Its connections are
+   * opened by the factory, if not null, to a database that has an
+   * Apidb.Datasource table (eg, an embedded one; see
+   * DatasetPresenterLoaderBenchmark), and otherwise to the instance.
+   */
+  DatasetPresenterSetLoader(Configuration config, Contacts allContacts,
+      HyperLinks defaultHyperLinks, ConnectionFactory connectionFactory,
+      String instance, String suffix) {
+    this.config = config;
+    this.allContacts = allContacts;
+    this.defaultHyperLinks = defaultHyperLinks;
+    this.connectionFactory = connectionFactory;
+    this.instance = instance;
+    this.suffix = suffix;
+    this.login = config.getUsername();
+    this.metrics = new LoaderMetrics(instance);
+  }
+
+  LoaderMetrics getMetrics() {
+    return metrics;
   }
 
   void setDatasetPresenterSet(DatasetPresenterSet dps) {
@@ -60,42 +135,142 @@ public class DatasetPresenterSetLoader {
   }
 
   /**
-   * 
-   * @param dps
+   * In diff mode the loader updates the existing tables with this suffix in
+   * place. It writes only DatasetPresenters whose content digest differs from
+   * the one already loaded, and deletes those no longer in the input set.
+   */
+  void setDiffMode(boolean diffMode) {
+    this.diffMode = diffMode;
+  }
+
+  /**
+   * In resume mode the loader continues a load into the tables with this
+   * suffix that failed part way. Loads commit every CHECKPOINT_INTERVAL
+   * presenters, and each presenter row records the presenter's input digest
+   * (a digest of its rows before citations are resolved). A presenter already
+   * loaded with the same input digest is skipped without looking up its
+   * citations; one loaded from different input is replaced.
+   */
+  void setResumeMode(boolean resumeMode) {
+    this.resumeMode = resumeMode;
+  }
+
+  /**
+   * Write the normalized layout: contacts and hyperlinks once each in shared
+   * tables, mapped to presenters, behind views in the usual tables' shape (see
+   * PresenterTable). Must match the layout of the tables loaded into.
+   */
+  void setNormalized(boolean normalized) {
+    this.normalized = normalized;
+  }
+
+  /**
+   * In staged mode the tables with this suffix are a shadow build that
+   * readers do not see: once loaded, they are indexed, their row counts are
+   * verified, and only then are the unsuffixed synonyms readers use switched
+   * to them (see load()).  The synonyms are switched one at a time, so
+   * readers may briefly see a mix of old and new tables; if a switch fails,
+   * those already switched are pointed back at their previous tables.
+   */
+  void setStaged(boolean staged) {
+    this.staged = staged;
+  }
+
+  /**
+   * Also report every pair of inputs whose dataset names or patterns could
+   * claim the same dataset name, whether or not any Apidb.Datasource row is
+   * matched by both (see DatasetNamePatternAnalyzer).  Off by default:
+   * validation rejects only rows actually claimed twice.
+   */
+  void setCheckPatternOverlap(boolean checkPatternOverlap) {
+    this.checkPatternOverlap = checkPatternOverlap;
+  }
+
+  /**
+   * Validate against a local snapshot of Apidb.Datasource (see
+   * DatasourceSnapshot) instead of querying the table.
+   *
+   * @param offline if true, use the snapshot as is; otherwise refresh it
+   *          first if the table has changed
+   */
+  void setDatasourceSnapshot(String snapshotFile, boolean offline) {
+    this.datasourceSnapshotFile = snapshotFile;
+    this.offline = offline;
+  }
+
+  /**
+   * Match the presenter set against Apidb.Datasource, recording the matched
+   * dataset names, types and taxa in the presenters and InternalDatasets.
+   * Each Datasource row may be claimed by only one InternalDataset or
+   * (non-override) DatasetPresenter.  Presenters' rows and contacts are
+   * checked in parallel; their model references, which construct their
+   * injectors, one at a time.  Problems are collected in errors rather than
+   * thrown.
+   *
    * @return set of dataset names in db not found (or matched by) the
    *         DatasetPresenters in the input set
    */
-  Set<String> syncPresenterSetWithDatasetTable() {
-    initDbConnection();
+  Set<String> syncPresenterSetWithDatasetTable(ValidationErrors errors) {
+    if (datasourceSnapshotFile != null) {
+      datasourceSnapshot = DatasourceSnapshot.load(new File(datasourceSnapshotFile),
+          offline ? null : initDbConnection());
+    }
+    else {
+      initDbConnection();
+    }
 
     try {
-      Set<String> datasetNamesFoundInDb = new HashSet<String>();
+      Set<String> namePatterns = new HashSet<String>();
+      for (InternalDataset internalDataset : dps.getInternalDatasets().values()) {
+        namePatterns.add(getNamePattern(internalDataset));
+      }
+      for (DatasetPresenter datasetPresenter : dps.getDatasetPresenters().values()) {
+        namePatterns.add(getNamePattern(datasetPresenter));
+      }
+      Map<String, List<DatasourceSnapshot.Row>> rowsByPattern = findDatasourceRows(namePatterns);
 
-      PreparedStatement datasetTableStmt = getDatasetTableStmt();
+      Set<String> datasetNamesFoundInDb = new HashSet<String>();
 
       for (InternalDataset internalDataset : dps.getInternalDatasets().values()) {
-        findInternalDatasetNamesInDb(internalDataset, datasetTableStmt,
-            datasetNamesFoundInDb);
+        List<DatasourceSnapshot.Row> rows = rowsByPattern.get(getNamePattern(internalDataset));
+        if (rows.isEmpty())
+          System.err.println("WARN:  InternalDataset with name or pattern \""
+            + getNamePattern(internalDataset) + "\" does not match any row in Apidb.Datasource");
+        for (DatasourceSnapshot.Row row : rows) {
+          internalDataset.addNameFromDb(row.getName());
+        }
+        claimDatasetNames("InternalDataset", internalDataset.getName(), rows,
+            datasetNamesFoundInDb, errors);
       }
 
+      // each presenter's rows and contacts are checked on their own, so they
+      // are checked in parallel
+      dps.getDatasetPresenters().values().parallelStream().forEach(datasetPresenter ->
+          validatePresenter(datasetPresenter, rowsByPattern.get(getNamePattern(datasetPresenter)), errors));
+
       Set<String> presenterNamesNotInDb = new HashSet<String>();
       for (DatasetPresenter datasetPresenter : dps.getDatasetPresenters().values()) {
-        getPresenterValuesFromDatasetTable(datasetPresenter, datasetTableStmt,
-            datasetNamesFoundInDb);
         if (!datasetPresenter.getFoundInDb())
           presenterNamesNotInDb.add(datasetPresenter.getDatasetName());
-        
-        datasetPresenter.getContacts(allContacts); // validate contacts
-        datasetPresenter.getModelReferences(); // validate model references
+        else if (datasetPresenter.getOverride() == null)
+          claimDatasetNames("DatasetPresenter", datasetPresenter.getDatasetName(),
+              rowsByPattern.get(getNamePattern(datasetPresenter)), datasetNamesFoundInDb, errors);
+
+        // injectors are constructed here, one at a time
+        try {
+          datasetPresenter.getModelReferences(); // validate model references
+        } catch (UserException e) {
+          errors.add("DatasetPresenter " + datasetPresenter.getDatasetName(), e.getMessage());
+        }
       }
 
       if (presenterNamesNotInDb.size() != 0) {
         System.err.println(NL
-            + "The following DatasetPresenters have no match in Apidb.Datasource: "
+            + "The following DatasetPresenters have no match in Apidb.Datasource of " + instance + ": "
             + NL + setToString(presenterNamesNotInDb));
       }
       
-      dps.handleOverrides();
+      dps.handleOverrides(errors);
       
       Set<String> dbDatasetNamesNotInPresenters = new HashSet<String>(
           findDatasetNamesInDb());
@@ -108,126 +283,172 @@ public class DatasetPresenterSetLoader {
     }
   }
 
+  private void validatePresenter(DatasetPresenter datasetPresenter,
+      List<DatasourceSnapshot.Row> rows, ValidationErrors errors) {
+    String subject = "DatasetPresenter " + datasetPresenter.getDatasetName();
+    try {
+      getPresenterValuesFromDatasetTable(datasetPresenter, rows);
+    } catch (UserException e) {
+      errors.add(subject, e.getMessage());
+    }
+    try {
+      datasetPresenter.getContacts(allContacts); // validate contacts
+    } catch (UserException e) {
+      errors.add(subject, e.getMessage());
+    }
+  }
+
+  /**
+   * Add the names of the Datasource rows an input matched to those claimed,
+   * reporting those another input claimed first.
+   */
+  private static void claimDatasetNames(String inputType, String inputName,
+      List<DatasourceSnapshot.Row> rows, Set<String> datasetNamesFoundInDb,
+      ValidationErrors errors) {
+    Set<String> datasetNamesFoundLocal = new HashSet<String>();
+    for (DatasourceSnapshot.Row row : rows) {
+      String name = row.getName();
+      if (datasetNamesFoundInDb.contains(name)) {
+        errors.add(inputType + " " + inputName, inputType + " with name \"" + inputName
+            + "\" has a name or name pattern that is claimed by another DatasetPresenter or InternalDataset.  The conflicting name is: \""
+            + name + "\"");
+        continue;
+      }
+      datasetNamesFoundLocal.add(name);
+    }
+    datasetNamesFoundInDb.addAll(datasetNamesFoundLocal);
+  }
+
   Connection initDbConnection() {
     if (dbConnection == null) {
-      String dsn = "jdbc:oracle:oci:@" + instance;
-      login = config.getUsername();
-      String password = config.getPassword();
+      dbConnection = openDbConnection();
+    }
+    return dbConnection;
+  }
+
+  /**
+   * @return a new connection, which the caller must close
+   */
+  private Connection openDbConnection() {
+    if (connectionFactory != null) {
       try {
-        SupportedPlatform.ORACLE.register(); // registers driver for Oracle
-        dbConnection = DriverManager.getConnection(dsn, login, password);
-      } catch (ClassNotFoundException e) {
-        throw new UserException("Cannot find database driver.  Please add " +
-            "the driver JAR to your classpath.", e);
+        return connectionFactory.open();
       } catch (SQLException e) {
-        throw new UserException("Can't connect to instance " + instance +
-            " with login info found in config file " + propFileName, e);
+        throw new UnexpectedException(e);
       }
     }
-    return dbConnection;
+    String dsn = "jdbc:oracle:oci:@" + instance;
+    login = config.getUsername();
+    String password = config.getPassword();
+    try {
+      SupportedPlatform.ORACLE.register(); // registers driver for Oracle
+      return DriverManager.getConnection(dsn, login, password);
+    } catch (ClassNotFoundException e) {
+      throw new UserException("Cannot find database driver.  Please add " +
+          "the driver JAR to your classpath.", e);
+    } catch (SQLException e) {
+      throw new UserException("Can't connect to instance " + instance +
+          " with login info found in config file " + propFileName, e);
+    }
   }
 
-  void findInternalDatasetNamesInDb(InternalDataset internalDataset,
-      PreparedStatement stmt, Set<String> datasetNamesFoundInDb)
-      throws SQLException {
-
-    Set<String> datasetNamesFoundLocal = new HashSet<String>();
-    ResultSet rs = null;
-    String namePattern = internalDataset.getDatasetNamePattern() == null
+  static String getNamePattern(InternalDataset internalDataset) {
+    return internalDataset.getDatasetNamePattern() == null
         ? internalDataset.getName() : internalDataset.getDatasetNamePattern();
-    stmt.setString(1, namePattern);
-    boolean found = false;
-    try {
-      rs = stmt.executeQuery();
-      while (rs.next()) {
-        found = true;
-        String name = rs.getString(1);
-        if (datasetNamesFoundInDb.contains(name))
-          throw new UserException(
-              "InternalDataset with name \""
-                  + internalDataset.getName()
-                  + "\" has a name or name pattern that is claimed by another DatasetPresenter or InternalDataset.  The conflicting name is: \""
-                  + name + "\"");
-        datasetNamesFoundLocal.add(name);
-        internalDataset.addNameFromDb(name);
-      }
-      if (!found) {
-          System.err.println("WARN:  InternalDataset with name or pattern \""
-            + namePattern + "\" does not match any row in Apidb.Datasource");
-      } 
-      else {
-          datasetNamesFoundInDb.addAll(datasetNamesFoundLocal);
-      }
-    } finally {
-      if (rs != null)
-        rs.close();
-    }
   }
 
-  void getPresenterValuesFromDatasetTable(DatasetPresenter datasetPresenter,
-      PreparedStatement stmt, Set<String> datasetNamesFoundInDb)
-      throws SQLException {
-    Set<String> datasetNamesFoundLocal = new HashSet<String>();
-    ResultSet rs = null;
-    String namePattern = datasetPresenter.getDatasetNamePattern() == null
+  static String getNamePattern(DatasetPresenter datasetPresenter) {
+    return datasetPresenter.getDatasetNamePattern() == null
         ? datasetPresenter.getDatasetName()
         : datasetPresenter.getDatasetNamePattern();
-    stmt.setString(1, namePattern);
+  }
+
+  void getPresenterValuesFromDatasetTable(DatasetPresenter datasetPresenter,
+      List<DatasourceSnapshot.Row> rows) {
+    String namePattern = getNamePattern(datasetPresenter);
     String first_type = null;
     String first_subtype = null;
     Boolean first_isSpeciesScope = null;
 
+    for (DatasourceSnapshot.Row row : rows) {
+      String name = row.getName();
+      Integer taxonId = row.getTaxonId();
+      String type = row.getType();
+      String subtype = row.getSubtype();
+      Boolean isSpeciesScope = row.getIsSpeciesScope();
+
+      // track all dataset names for presenter
+      datasetPresenter.addDatasetNameToList(name);
+
+      if (!datasetPresenter.getFoundInDb()) {
+        datasetPresenter.setFoundInDb();
+        first_type = type;
+        first_subtype = subtype;
+        first_isSpeciesScope = isSpeciesScope;
+        datasetPresenter.setType(type);
+        datasetPresenter.setSubtype(subtype);
+        datasetPresenter.setIsSpeciesScope(isSpeciesScope);
+      } else {
+        if ((first_type == null && type != null)
+            || (first_type != null && !type.equals(first_type))
+            || (first_subtype == null && subtype != null)
+            || (first_subtype != null && !subtype.equals(first_subtype))
+            || (first_isSpeciesScope != isSpeciesScope))
+          throw new UserException(
+              "DatasetPresenter with datasetNamePattern=\""
+                  + namePattern
+                  + "\" matches rows in the Dataset table that disagree in their type, subtype or is_species_scope columns");
+      }
+      datasetPresenter.addNameTaxonPair(new NameTaxonPair(name, taxonId));
+    }
+  }
+
+  /**
+   * @return the Apidb.Datasource rows whose names are like each pattern.  From
+   *         a snapshot they are found in parallel; from the live table, one
+   *         query at a time.
+   */
+  Map<String, List<DatasourceSnapshot.Row>> findDatasourceRows(Set<String> namePatterns)
+      throws SQLException {
+    Map<String, List<DatasourceSnapshot.Row>> rowsByPattern = new ConcurrentHashMap<String, List<DatasourceSnapshot.Row>>();
+    if (datasourceSnapshot != null) {
+      namePatterns.parallelStream().forEach(namePattern ->
+          rowsByPattern.put(namePattern, datasourceSnapshot.findRows(namePattern)));
+      return rowsByPattern;
+    }
+    PreparedStatement stmt = getDatasetTableStmt();
+    try {
+      for (String namePattern : namePatterns) {
+        rowsByPattern.put(namePattern, findDatasourceRows(namePattern, stmt));
+      }
+    } finally {
+      stmt.close();
+    }
+    return rowsByPattern;
+  }
+
+  private List<DatasourceSnapshot.Row> findDatasourceRows(String namePattern,
+      PreparedStatement stmt) throws SQLException {
+    List<DatasourceSnapshot.Row> rows = new ArrayList<DatasourceSnapshot.Row>();
+    stmt.setString(1, namePattern);
+    ResultSet rs = null;
     try {
       rs = stmt.executeQuery();
       while (rs.next()) {
-        String name = rs.getString(1);
-        Integer taxonId = rs.getInt(2);
-        String type = rs.getString(3);
-        String subtype = rs.getString(4);
-        Boolean isSpeciesScope = rs.getBoolean(5);
-
-        // track all dataset names for presenter
-        datasetPresenter.addDatasetNameToList(name);
-
-        if (datasetPresenter.getOverride() == null) {
-          if (datasetNamesFoundInDb.contains(name))
-            throw new UserException(
-                "DatasetPresenter with name \""
-                    + datasetPresenter.getDatasetName()
-                    + "\" has a name or name pattern that is claimed by another DatasetPresenter or InternalDataset.  The conflicting name is: \""
-                    + name + "\"");
-          datasetNamesFoundLocal.add(name);
-        }
-        if (!datasetPresenter.getFoundInDb()) {
-          datasetPresenter.setFoundInDb();
-          first_type = type;
-          first_subtype = subtype;
-          first_isSpeciesScope = isSpeciesScope;
-          datasetPresenter.setType(type);
-          datasetPresenter.setSubtype(subtype);
-          datasetPresenter.setIsSpeciesScope(isSpeciesScope);
-        } else {
-          if ((first_type == null && type != null)
-              || (first_type != null && !type.equals(first_type))
-              || (first_subtype == null && subtype != null)
-              || (first_subtype != null && !subtype.equals(first_subtype))
-              || (first_isSpeciesScope != isSpeciesScope))
-            throw new UserException(
-                "DatasetPresenter with datasetNamePattern=\""
-                    + namePattern
-                    + "\" matches rows in the Dataset table that disagree in their type, subtype or is_species_scope columns");
-        }
-        datasetPresenter.addNameTaxonPair(new NameTaxonPair(name, taxonId));
+        rows.add(new DatasourceSnapshot.Row(rs.getString(1), rs.getInt(2),
+            rs.getString(3), rs.getString(4), rs.getBoolean(5)));
       }
-      if (datasetPresenter.getFoundInDb()) 
-        datasetNamesFoundInDb.addAll(datasetNamesFoundLocal);
     } finally {
       if (rs != null)
         rs.close();
     }
+    return rows;
   }
 
   Set<String> findDatasetNamesInDb() throws SQLException {
+    if (datasourceSnapshot != null)
+      return datasourceSnapshot.getNames();
+
     Set<String> datasetNamesInDb = new HashSet<String>();
     String sql = "select name from apidb.datasource";
     Statement stmt = null;
@@ -250,27 +471,114 @@ public class DatasetPresenterSetLoader {
   void schemaInstall() {
     System.err.println("Installing DatasetPresenter schema into instance "
         + instance + " schema " + login + " using suffix " + suffix);
-    manageSchema(false);
+    long start = metrics.startPhase("schemaInstall");
+    manageSchema(normalized ? "-createNormalized" : "-create");
+    metrics.endPhase("schemaInstall", start);
     System.err.println("Install complete");
   }
 
+  /**
+   * Recreate the sequences of existing tables (dropped after their original
+   * load), starting above the ids already used.  Needed to diff load into
+   * those tables, or to resume loading them.
+   */
+  void schemaCreateSequences() {
+    System.err.println("Creating sequences for existing DatasetPresenter tables in instance "
+        + instance + " using suffix " + suffix);
+    long start = metrics.startPhase("schemaCreateSequences");
+    manageSchema("-createSequences");
+    metrics.endPhase("schemaCreateSequences", start);
+    System.err.println("Create complete");
+  }
+
+  /**
+   * Index the loaded tables of a staged build. Done after the load, so the
+   * rows are inserted without index maintenance.
+   */
+  void schemaCreateIndexes() {
+    System.err.println("Indexing DatasetPresenter tables with suffix " + suffix);
+    long start = metrics.startPhase("createIndexes");
+    manageSchema("-createIndexes");
+    metrics.endPhase("createIndexes", start);
+    System.err.println("Indexing complete");
+  }
+
+  /**
+   * Point the unsuffixed DatasetPresenter synonyms at the tables with this
+   * suffix.  Not atomic; on failure presenterCreateSchema restores the
+   * synonyms it switched, and reports any it could not.
+   */
+  void schemaSwapSynonyms() {
+    System.err.println("Switching DatasetPresenter synonyms in instance " + instance
+        + " to the tables with suffix " + suffix);
+    long start = metrics.startPhase("swapSynonyms");
+    manageSchema("-swapSynonyms");
+    metrics.endPhase("swapSynonyms", start);
+    System.err.println("Switch complete");
+  }
+
+  /**
+   * Check a staged build before readers are switched to it: the presenter
+   * table must hold one row per DatasetPresenter found in Apidb.Datasource,
+   * and (unless the load was resumed, and so wrote only part of the rows)
+   * every table as many rows as the load wrote to it.
+   */
+  void verifyRowCounts() {
+    long start = metrics.startPhase("verifyRowCounts");
+    int presenterCount = 0;
+    for (DatasetPresenter datasetPresenter : dps.getDatasetPresenters().values()) {
+      if (datasetPresenter.getFoundInDb()) presenterCount++;
+    }
+
+    List<String> mismatches = new ArrayList<String>();
+    Connection connection = initDbConnection();
+    try (Statement stmt = connection.createStatement()) {
+      for (PresenterTable table : PresenterTable.getTables(normalized)) {
+        String tableName = table.getTableName(config.getUsername(), suffix);
+        long expected = table == PresenterTable.PRESENTER ? presenterCount
+            : resumeMode ? -1 : metrics.getRows(table);
+        if (expected < 0) continue;
+        try (ResultSet rs = stmt.executeQuery("select count(*) from " + tableName)) {
+          rs.next();
+          long count = rs.getLong(1);
+          if (count != expected)
+            mismatches.add(tableName + " has " + count + " rows but " + expected + " were expected");
+        }
+      }
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    } finally {
+      closeDbConnection();
+      metrics.endPhase("verifyRowCounts", start);
+    }
+
+    if (!mismatches.isEmpty())
+      throw new UserException("The staged DatasetPresenter tables with suffix " + suffix
+          + " failed verification, and readers were not switched to them:" + NL
+          + String.join(NL, mismatches));
+    System.err.println("Verified row counts of the tables with suffix " + suffix);
+  }
+
   void schemaDropConstraints() {
     System.err.println("Dropping integrity constraints from DatasetPresenter tables (so TuningManager can easily delete them)");
-    manageSchema(true);
+    long start = metrics.startPhase("constraintDrop");
+    manageSchema("-dropConstraints");
+    metrics.endPhase("constraintDrop", start);
     System.err.println("Drop complete");
   }
 
-  void manageSchema(boolean dropConstraints) {
-    String mode = dropConstraints ? "-dropConstraints" : "-create";
+  void manageSchema(String mode) {
     String[] cmd = { "presenterCreateSchema", instance, suffix, propFileName,
         mode };
     Process process;
     try {
-      process = Runtime.getRuntime().exec(cmd);
+      // the script's own error messages (eg, which synonyms a failed switch
+      // left behind) go to our stderr
+      process = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
       process.waitFor();
       if (process.exitValue() != 0)
         throw new UserException(
-            "Failed running command to create DatasetPresenter schema: "
+            "Failed running command to manage DatasetPresenter schema: "
                 + System.lineSeparator() + "presenterCreateSchema " + instance
                 + " " + suffix + " " + propFileName + " " + mode);
       process.destroy();
@@ -279,93 +587,275 @@ public class DatasetPresenterSetLoader {
     }
   }
 
-  void loadDatasetPresenterSet() {
-    System.err.println("Loading DatasetPresenters into " + instance);
+  /**
+   * Compare the loaded tables with this suffix with the rows the presenter
+   * set gives, by per-presenter hash aggregates (see
+   * PresenterTableVerifier), without reading the rows back.
+   *
+   * @throws UserException listing the presenters whose rows differ
+   */
+  void verifyLoadedTables() {
+    System.err.println("Verifying DatasetPresenter tables with suffix " + suffix
+        + " in instance " + instance);
+    long start = metrics.startPhase("verify");
+    List<String> mismatches;
     try {
-      PreparedStatement presenterStmt = getPresenterStmt();
-      PreparedStatement contactStmt = getContactStmt();
-      PreparedStatement publicationStmt = getPublicationStmt();
-      PreparedStatement pubmedQuery = getPubmedQuery();
-      PreparedStatement referenceStmt = getReferenceStmt();
-      PreparedStatement linkStmt = getLinkStmt();
-      PreparedStatement historyStmt = getHistoryStmt();
-      PreparedStatement nameTaxonStmt = getNameTaxonStmt();
-      PreparedStatement injectorPropertiesStmt = getInjectorPropertiesStmt() ;
-
       Map<String, Map<String, String>> defaultDatasetInjectorClasses = DatasetPresenterParser.parseDefaultInjectorsFile(defaultInjectorsFileName);
-
+      PresenterTableVerifier verifier = new PresenterTableVerifier(initDbConnection(),
+          config.getUsername(), suffix);
       for (DatasetPresenter datasetPresenter : dps.getDatasetPresenters().values()) {
         if (!datasetPresenter.getFoundInDb()) continue;
-
         datasetPresenter.setDefaultDatasetInjector(defaultDatasetInjectorClasses);
+        // the plain layout, which views give in the normalized one; but the
+        // input digest loaded is that of the layout loaded
+        PresenterRows rows = buildPresenterRows(datasetPresenter, false);
+        String inputDigest = normalized ? buildPresenterRows(datasetPresenter, true).getDigest()
+            : rows.getDigest();
+        completePresenterRows(rows, datasetPresenter, false, null, inputDigest);
+        verifier.addExpected(rows);
+      }
+      mismatches = verifier.verify();
+    } finally {
+      closeDbConnection();
+      metrics.endPhase("verify", start);
+    }
 
-	String datasetPresenterId = datasetPresenter.getId();
-        String datasetFullDigest = datasetPresenter.getFullDigest();
+    if (!mismatches.isEmpty())
+      throw new UserException("The DatasetPresenter tables with suffix " + suffix
+          + " differ from the presenters in " + mismatches.size() + " place(s):" + NL
+          + String.join(NL, mismatches));
+    System.err.println("Verification complete: the tables match the presenters");
+  }
 
-        loadDatasetPresenter(datasetPresenterId, datasetFullDigest, datasetPresenter, presenterStmt);
+  /**
+   * A DatasetPresenter ready to be written: its sealed rows, and whether an
+   * earlier load wrote it (so its rows must be deleted first).
+   */
+  private static class PreparedPresenter {
+    final DatasetPresenter presenter;
+    final PresenterRows rows;
+    final boolean previouslyLoaded;
+    final long prepareMillis;
+
+    PreparedPresenter(DatasetPresenter presenter, PresenterRows rows,
+        boolean previouslyLoaded, long prepareMillis) {
+      this.presenter = presenter;
+      this.rows = rows;
+      this.previouslyLoaded = previouslyLoaded;
+      this.prepareMillis = prepareMillis;
+    }
+  }
 
-        DatasetInjector datasetInjector = datasetPresenter.getDatasetInjector();
+  // queued after the last prepared presenter
+  private static final PreparedPresenter END_OF_PRESENTERS = new PreparedPresenter(null, null, false, 0);
 
-        if(datasetInjector != null) {
-            Map<String, String> injectorPropValues =  datasetInjector.getPropValues();
-            for (Map.Entry<String, String> pv : injectorPropValues.entrySet()) {
-                
-		String dataValue = FormatUtil.shrinkUtf8String(pv.getValue(), 4000);
-                loadInjectorPropValue(datasetPresenterId, pv.getKey(), dataValue, injectorPropertiesStmt);
-            }
+  /**
+   * Load the presenters found in Apidb.Datasource into the row sink.
+   *
+   * The load is a two stage pipeline. A preparing thread resolves each
+   * presenter's injector, digests and citations into sealed PresenterRows and
+   * queues them (at most PIPELINE_DEPTH ahead); this thread takes them off the
+   * queue and writes them. So the sink is written while the next presenters
+   * are prepared, and the load takes as long as the slower stage. The sink is
+   * only used by this thread; the preparing thread looks up citations on a
+   * connection of its own, and is always finished before this method returns
+   * and the loader's connection is closed.
+   */
+  void loadDatasetPresenterSet() {
+    if (diffMode && resumeMode)
+      throw new UserException("Diff and resume modes can't be combined");
+
+    PresenterRowSink rowSink = getRowSink();
+    rowSink.setMetrics(metrics);
+    long loadStart = metrics.startPhase("load");
+    System.err.println("Loading DatasetPresenters into " + rowSink.getDescription()
+        + (diffMode ? " (diff mode)" : resumeMode ? " (resuming)" : ""));
+    ExecutorService preparer = Executors.newSingleThreadExecutor();
+    BlockingQueue<PreparedPresenter> queue = new ArrayBlockingQueue<PreparedPresenter>(PIPELINE_DEPTH);
+    Future<Integer> preparation = null;
+    try {
+      // in diff and resume modes, presenters left in this map after the
+      // preparation are no longer in the input set, and are deleted
+      Map<String, String> previousDigests = diffMode ? rowSink.getLoadedContentDigests()
+          : resumeMode ? rowSink.getLoadedInputDigests() : null;
+      int inserted = 0, updated = 0;
+      int sinceCheckpoint = 0;
+
+      preparation = preparer.submit(() -> preparePresenters(previousDigests, queue));
+
+      PreparedPresenter prepared;
+      while ((prepared = queue.take()) != END_OF_PRESENTERS) {
+        long writeStart = System.currentTimeMillis();
+        String datasetPresenterId = prepared.rows.getPresenterId();
+
+        if (prepared.previouslyLoaded) {
+          rowSink.delete(datasetPresenterId);
+          updated++;
+        }
+        else {
+          inserted++;
         }
 
-        String type = datasetPresenter.getType();
-        String subtype = datasetPresenter.getSubtype();
-
-
+        rowSink.write(prepared.rows);
+        metrics.addPresenter(datasetPresenterId, prepared.presenter.getDatasetName(),
+            prepared.prepareMillis + System.currentTimeMillis() - writeStart);
 
-        for (Contact contact : datasetPresenter.getContacts(allContacts)) {
-          loadContact(datasetPresenterId, contact, contactStmt);
+        // a diff load is applied as a whole
+        if (!diffMode && ++sinceCheckpoint == CHECKPOINT_INTERVAL) {
+          rowSink.commit();
+          sinceCheckpoint = 0;
         }
+      }
+      int unchanged = getUnchangedCount(preparation);
 
-        for (Publication pub : datasetPresenter.getPublications()) {
-	    loadPublication(datasetPresenterId, pub, publicationStmt, pubmedQuery);
+      if (previousDigests != null) {
+        for (String datasetPresenterId : previousDigests.keySet()) {
+          rowSink.delete(datasetPresenterId);
         }
+        // contacts and links of deleted or rewritten presenters
+        if (normalized)
+          rowSink.deleteUnmappedSharedRows();
+      }
+      rowSink.commit();
+      if (diffMode || resumeMode) {
+        System.err.println("Inserted " + inserted + ", updated " + updated
+            + ", deleted " + previousDigests.size() + " and left " + unchanged
+            + " DatasetPresenters unchanged");
+      }
+      System.err.println("Loading done");
+    } catch (InterruptedException e) {
+      rowSink.rollback();
+      throw new UnexpectedException(e);
+    } catch (RuntimeException e) {
+      rowSink.rollback();
+      if (!diffMode)
+        System.err.println(NL + "Load failed.  DatasetPresenters committed so far are kept; rerun with -resume to load the rest");
+      throw e;
+    } finally {
+      // stop the preparing thread if this one failed, and wait for it,
+      // making room for what it queues until it ends
+      if (preparation != null)
+        preparation.cancel(true);
+      preparer.shutdown();
+      awaitTermination(preparer, queue);
+      rowSink.close();
+      metrics.endPhase("load", loadStart);
+      closeDbConnection();
+    }
+  }
 
+  private static void awaitTermination(ExecutorService preparer,
+      BlockingQueue<PreparedPresenter> queue) {
+    boolean interrupted = false;
+    try {
+      do {
+        queue.clear();
+        try {
+          if (preparer.awaitTermination(100, TimeUnit.MILLISECONDS)) break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      } while (true);
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
 
+  /**
+   * The first stage of loadDatasetPresenterSet(): prepare the rows of each
+   * presenter to be written, and queue them.
+   *
+   * @return the number of presenters left unchanged (diff and resume modes)
+   */
+  private int preparePresenters(Map<String, String> previousDigests,
+      BlockingQueue<PreparedPresenter> queue) throws InterruptedException {
+    Connection citationConnection = null;
+    try {
+      citationConnection = openDbConnection();
+      PreparedStatement pubmedQuery = getPubmedQuery(citationConnection);
 
-        for (ModelReference ref : datasetPresenter.getModelReferences()) {
-          loadModelReference(datasetPresenterId, ref, referenceStmt);
-        }
+      Map<String, Map<String, String>> defaultDatasetInjectorClasses = DatasetPresenterParser.parseDefaultInjectorsFile(defaultInjectorsFileName);
 
-        for (History history : datasetPresenter.getHistories()) {
-          loadHistory(datasetPresenterId, history, historyStmt);
-        }
+      int unchanged = 0;
+      for (DatasetPresenter datasetPresenter : dps.getDatasetPresenters().values()) {
+        if (!datasetPresenter.getFoundInDb()) continue;
 
-        if(type != null) {
-            String key = type + "." + subtype;
+        long presenterStart = System.currentTimeMillis();
+        datasetPresenter.setDefaultDatasetInjector(defaultDatasetInjectorClasses);
 
-            for (HyperLink link : defaultHyperLinks.getHyperLinksFromTypeSubtype(key)) {
-                loadLink(datasetPresenterId, link, linkStmt);
-            }
+        String datasetPresenterId = datasetPresenter.getId();
+        PresenterRows rows = buildPresenterRows(datasetPresenter, normalized);
+        String inputDigest = rows.getDigest();
+        boolean previouslyLoaded = false;
+
+        if (resumeMode) {
+          previouslyLoaded = previousDigests.containsKey(datasetPresenterId);
+          if (inputDigest.equals(previousDigests.remove(datasetPresenterId))) {
+            unchanged++;
+            continue;
+          }
         }
 
-        for (HyperLink link : datasetPresenter.getLinks()) {
-          loadLink(datasetPresenterId, link, linkStmt);
-        }
+        completePresenterRows(rows, datasetPresenter, true, pubmedQuery, inputDigest);
 
-        for (NameTaxonPair pair : datasetPresenter.getNameTaxonPairs()) {
-          loadNameTaxonPair(datasetPresenterId, pair, nameTaxonStmt);
+        if (diffMode) {
+          previouslyLoaded = previousDigests.containsKey(datasetPresenterId);
+          if (rows.getContentDigest().equals(previousDigests.remove(datasetPresenterId))) {
+            unchanged++;
+            continue;
+          }
         }
 
+        queue.put(new PreparedPresenter(datasetPresenter, rows, previouslyLoaded,
+            System.currentTimeMillis() - presenterStart));
       }
-      System.err.println("Loading done");
-    } catch (SQLException e) {
-      throw new UnexpectedException(e);
+      return unchanged;
     } finally {
       try {
-        if (dbConnection != null)
-          dbConnection.close();
+        if (citationConnection != null)
+          citationConnection.close();
       } catch (SQLException e) {
-        throw new UnexpectedException(e);
+        LOG.warn("Could not close citation connection", e);
       }
+      queue.put(END_OF_PRESENTERS);
+    }
+  }
+
+  private static int getUnchangedCount(Future<Integer> preparation) throws InterruptedException {
+    try {
+      return preparation.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new UnexpectedException(e.getCause());
+    }
+  }
+
+  private void closeDbConnection() {
+    try {
+      if (dbConnection != null)
+        dbConnection.close();
+      dbConnection = null;
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  void setRowSink(PresenterRowSink rowSink) {
+    this.rowSink = rowSink;
+  }
+
+  /**
+   * @return the sink rows are loaded into; by default the tables of the
+   *         instance being validated against
+   */
+  PresenterRowSink getRowSink() {
+    if (rowSink == null) {
+      rowSink = new JdbcPresenterRowSink(initDbConnection(),
+          config.getUsername(), suffix, instance, normalized);
     }
+    return rowSink;
   }
 
   PreparedStatement getDatasetTableStmt() throws SQLException {
@@ -375,129 +865,202 @@ public class DatasetPresenterSetLoader {
     return dbConnection.prepareStatement(sql);
   }
 
-  PreparedStatement getPresenterStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetPresenter" + suffix;
-    String sql = "INSERT INTO " + table +
-        " (dataset_presenter_id, dataset_sha1_digest, name, dataset_name_pattern, " +
-        "display_name, short_display_name, short_attribution, summary, " +
-        "protocol, usage, description, caveat, acknowledgement, release_policy, " +
-        "display_category, type, subtype, is_species_scope, build_number_introduced, " +
-        "category)" +
-        " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
+  /**
+   * Gather all the rows the DatasetPresenter contributes to the
+   * DatasetPresenter tables, and seal them with their content digest.
+   */
+  PresenterRows getPresenterRows(DatasetPresenter datasetPresenter,
+      PreparedStatement pubmedQuery) {
+    PresenterRows rows = buildPresenterRows(datasetPresenter, normalized);
+    completePresenterRows(rows, datasetPresenter, true, pubmedQuery, rows.getDigest());
+    return rows;
   }
 
-  private void loadDatasetPresenter(String datasetPresenterId, String datasetFullDigest, DatasetPresenter datasetPresenter, PreparedStatement stmt)
-      throws SQLException {
-    int i = 1;
-    stmt.setString(i++, datasetPresenterId); 
-    stmt.setString(i++, datasetFullDigest);
-    stmt.setString(i++, datasetPresenter.getDatasetName());
-    stmt.setString(i++, datasetPresenter.getDatasetNamePattern());
-    stmt.setString(i++, datasetPresenter.getDatasetDisplayName());
-    stmt.setString(i++, datasetPresenter.getDatasetShortDisplayName());
-    stmt.setString(i++, datasetPresenter.getShortAttribution());
-    stmt.setString(i++, datasetPresenter.getSummary());
-    stmt.setString(i++, datasetPresenter.getProtocol());
-    stmt.setString(i++, datasetPresenter.getUsage());
-    stmt.setString(i++, datasetPresenter.getDatasetDescrip());
-    stmt.setString(i++, datasetPresenter.getCaveat());
-    stmt.setString(i++, datasetPresenter.getAcknowledgement());
-    stmt.setString(i++, datasetPresenter.getReleasePolicy());
-    stmt.setString(i++, datasetPresenter.getDisplayCategory());
-    stmt.setString(i++, datasetPresenter.getType());
+  /**
+   * Gather the rows the DatasetPresenter contributes, before citations are
+   * looked up and digests recorded.  Their digest (PresenterRows.getDigest())
+   * is the presenter's input digest: cheap to compute, it changes whenever
+   * the presenter's input (its XML, contacts, default links, Datasource rows)
+   * does.
+   */
+  private PresenterRows buildPresenterRows(DatasetPresenter datasetPresenter,
+      boolean normalizedLayout) {
+    String datasetPresenterId = datasetPresenter.getId();
+    PresenterRows rows = new PresenterRows(datasetPresenterId);
+
+    addPresenterRow(rows, datasetPresenter);
+
+    DatasetInjector datasetInjector = datasetPresenter.getDatasetInjector();
+
+    if(datasetInjector != null) {
+      Map<String, String> injectorPropValues =  datasetInjector.getPropValues();
+      for (Map.Entry<String, String> pv : injectorPropValues.entrySet()) {
+        String dataValue = shrinkToVarchar(pv.getValue());
+        rows.addRow(PresenterTable.PROPERTY, datasetPresenterId, pv.getKey(), dataValue);
+      }
+    }
+
+    for (Contact contact : datasetPresenter.getContacts(allContacts)) {
+      if (normalizedLayout) {
+        rows.addRow(PresenterTable.CONTACT_SHARED, contact.getId(),
+            contact.getName(), contact.getEmail(), contact.getInstitution(),
+            contact.getAddress(), contact.getCity(), contact.getState(),
+            contact.getZip(), contact.getCountry());
+        rows.addRow(PresenterTable.CONTACT_MAP, datasetPresenterId,
+            contact.getId(), contact.getIsPrimary());
+      }
+      else {
+        rows.addRow(PresenterTable.CONTACT, datasetPresenterId,
+            contact.getIsPrimary(), contact.getName(), contact.getEmail(),
+            contact.getInstitution(), contact.getAddress(), contact.getCity(),
+            contact.getState(), contact.getZip(), contact.getCountry());
+      }
+    }
+
+    for (Publication pub : datasetPresenter.getPublications()) {
+      rows.addRow(PresenterTable.PUBLICATION, datasetPresenterId,
+          pub.getPubmedId(), null); // citation, see completePresenterRows()
+    }
+
+    for (ModelReference ref : datasetPresenter.getModelReferences()) {
+      rows.addRow(PresenterTable.MODEL_REF, datasetPresenterId,
+          ref.getRecordClassName(), ref.getTargetType(),
+          ref.getTargetName().replace(":", ""));
+    }
+
+    for (History history : datasetPresenter.getHistories()) {
+      rows.addRow(PresenterTable.HISTORY, datasetPresenterId,
+          history.getBuildNumber(), history.getGenomeSource(),
+          history.getGenomeVersion(), history.getAnnotationSource(),
+          history.getAnnotationVersion(),
+          history.getFunctionalAnnotationSource(),
+          history.getFunctionalAnnotationVersion(), history.getComment());
+    }
+
+    String type = datasetPresenter.getType();
+    String subtype = datasetPresenter.getSubtype();
+
+    if(type != null) {
+      String key = type + "." + subtype;
+
+      for (HyperLink link : defaultHyperLinks.getHyperLinksFromTypeSubtype(key)) {
+        addLinkRow(rows, link, normalizedLayout);
+      }
+    }
+
+    for (HyperLink link : datasetPresenter.getLinks()) {
+      addLinkRow(rows, link, normalizedLayout);
+    }
+
+    for (NameTaxonPair pair : datasetPresenter.getNameTaxonPairs()) {
+      rows.addRow(PresenterTable.NAME_TAXON, datasetPresenterId,
+          pair.getName(), pair.getTaxonId());
+    }
+
+    return rows;
+  }
+
+  /**
+   * Record the input digest in rows from buildPresenterRows(), look up their
+   * citations if asked to, and seal them.
+   */
+  private void completePresenterRows(PresenterRows rows, DatasetPresenter datasetPresenter,
+      boolean resolveCitations, PreparedStatement pubmedQuery, String inputDigest) {
+    rows.setValue(PresenterTable.PRESENTER, 0, "input_sha1_digest", inputDigest);
+    if (resolveCitations) {
+      int row = 0;
+      for (Publication pub : datasetPresenter.getPublications()) {
+        rows.setValue(PresenterTable.PUBLICATION, row++, "citation", getCitation(pub, pubmedQuery));
+      }
+    }
+    rows.seal();
+  }
 
+  private void addPresenterRow(PresenterRows rows, DatasetPresenter datasetPresenter) {
     String subtype = datasetPresenter.getSubtype() == null ? "" : datasetPresenter.getSubtype();
     boolean isSpeciesScope = datasetPresenter.getIsSpeciesScope() == null ? false : datasetPresenter.getIsSpeciesScope();
 
-    stmt.setString(i++, subtype);
-    stmt.setBoolean(i++, isSpeciesScope);
-
     Float buildNumberIntroduced = datasetPresenter.getBuildNumberIntroduced();
 
     if(buildNumberIntroduced == null) {
         buildNumberIntroduced = Float.valueOf(0);
     }
 
-    stmt.setInt(i++, buildNumberIntroduced.intValue());
-
     String datasetClassCategory = datasetPresenter.getPropValue("datasetClassCategory");
-    stmt.setString(i++, datasetClassCategory);
 
-    stmt.execute();
-  }
-
-  PreparedStatement getContactStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetContact" + suffix;
-    String sql = "INSERT INTO "
-        + table
-        + " (dataset_contact_id, dataset_presenter_id, is_primary_contact, name, email, affiliation, address, city, state, zip, country)"
-        + " VALUES (" + table + "_sq.nextval, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
+    rows.addRow(PresenterTable.PRESENTER,
+        rows.getPresenterId(),
+        datasetPresenter.getFullDigest(),
+        datasetPresenter.getDatasetName(),
+        datasetPresenter.getDatasetNamePattern(),
+        datasetPresenter.getDatasetDisplayName(),
+        datasetPresenter.getDatasetShortDisplayName(),
+        datasetPresenter.getShortAttribution(),
+        datasetPresenter.getSummary(),
+        datasetPresenter.getProtocol(),
+        datasetPresenter.getUsage(),
+        datasetPresenter.getDatasetDescrip(),
+        datasetPresenter.getCaveat(),
+        datasetPresenter.getAcknowledgement(),
+        datasetPresenter.getReleasePolicy(),
+        datasetPresenter.getDisplayCategory(),
+        datasetPresenter.getType(),
+        subtype,
+        isSpeciesScope,
+        buildNumberIntroduced.intValue(),
+        datasetClassCategory,
+        null, // input digest; see completePresenterRows()
+        null); // content digest, filled in when the rows are sealed
   }
 
-  PreparedStatement getInjectorPropertiesStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetProperty" + suffix;
-    String sql = "INSERT INTO "
-        + table
-        + " (dataset_property_id, dataset_presenter_id, property, value)"
-        + " VALUES (" + table + "_sq.nextval, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
+  /**
+   * Shrink a value to fit a varchar2(4000) column.  Most values are short
+   * enough that no char can take them past the limit, and are not encoded.
+   */
+  static String shrinkToVarchar(String value) {
+    if (value == null || value.length() * 3 <= VARCHAR_BYTES) return value;
+    return FormatUtil.shrinkUtf8String(value, VARCHAR_BYTES);
   }
 
-
-    private void loadInjectorPropValue(String datasetPresenterId, String property, String value, PreparedStatement stmt) throws SQLException {
-        stmt.setString(1, datasetPresenterId);
-        stmt.setString(2, property);
-        stmt.setString(3, value);
-        stmt.execute();
+  private void addLinkRow(PresenterRows rows, HyperLink link, boolean normalizedLayout) {
+    if (normalizedLayout) {
+      Object[] values = { link.getText(), link.getDescription(), link.getUrl(),
+          link.getIsPublication() };
+      String linkId = PresenterRows.getRowDigest(values);
+      rows.addRow(PresenterTable.LINK_SHARED, linkId, values[0], values[1],
+          values[2], values[3]);
+      rows.addRow(PresenterTable.LINK_MAP, rows.getPresenterId(), linkId);
+    }
+    else {
+      rows.addRow(PresenterTable.LINK, rows.getPresenterId(), link.getText(),
+          link.getDescription(), link.getUrl(), link.getIsPublication());
     }
-
-  private void loadContact(String datasetPresenterId, Contact contact,
-      PreparedStatement stmt) throws SQLException {
-    stmt.setString(1, datasetPresenterId);
-    stmt.setBoolean(2, contact.getIsPrimary());
-    stmt.setString(3, contact.getName());
-    stmt.setString(4, contact.getEmail());
-    stmt.setString(5, contact.getInstitution());
-    stmt.setString(6, contact.getAddress());
-    stmt.setString(7, contact.getCity());
-    stmt.setString(8, contact.getState());
-    stmt.setString(9, contact.getZip());
-    stmt.setString(10, contact.getCountry());
-    stmt.execute();
-  }
-
-  PreparedStatement getPublicationStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetPublication" + suffix;
-    String sql = "INSERT INTO " + table
-        + " (dataset_publication_id, dataset_presenter_id, pmid, citation)"
-        + " VALUES (" + table + "_sq.nextval, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
   }
 
   PreparedStatement getPubmedQuery() {
+    return getPubmedQuery(dbConnection);
+  }
+
+  private PreparedStatement getPubmedQuery(Connection connection) {
     PreparedStatement query;
     String sql = "select max(citation) as citation "
                  + "from " + config.getUsername() + ".datasetPublication "
                  + " where pmid = ?";
 
     try {
-        query = dbConnection.prepareStatement(sql);
+        query = connection.prepareStatement(sql);
     } catch (SQLException e) {
         query = null;
     }
     return query;
   }
 
-  private void loadPublication(String datasetPresenterId, Publication publication,
-			       PreparedStatement insertStmt, PreparedStatement pubmedQuery) throws SQLException {
+  private String getCitation(Publication publication, PreparedStatement pubmedQuery) {
 
       String citation = new String("nothing");
 
     try {
 	// try to get it from an existing DatasetPublication record
-        // System.out.println("looking in " + config.getUsername() + " schema in database for pubmed ID " + publication.getPubmedId());
         pubmedQuery.setString(1, publication.getPubmedId());
         ResultSet rs = pubmedQuery.executeQuery();
         rs.next();
@@ -505,107 +1068,13 @@ public class DatasetPresenterSetLoader {
     } catch (SQLException e) {
     }
 
-    // System.out.println("now have citation \"" + citation + "\"");
     // if that fails, get it from the NCBI web service
     if (citation == null || citation.equals("") || citation.equals("nothing")) {
-	// System.out.println("fail; had to hit NCBI");
 	citation = publication.getCitation();
     }
-
-    insertStmt.setString(1, datasetPresenterId);
-    insertStmt.setString(2, publication.getPubmedId());
-    insertStmt.setString(3, citation);
-
-    try {
-        insertStmt.execute();
-    } catch (SQLException e) {
-        LOG.error("*****Error Loading Publication*****");
-        LOG.error("Publication: " + publication.toString() + NL, e);
-        throw(e);
-    }
-    
-  }
-
-  PreparedStatement getNameTaxonStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetNameTaxon" + suffix;
-    String sql = "INSERT INTO " + table
-        + " (dataset_taxon_id, dataset_presenter_id, name, taxon_id)"
-        + " VALUES (" + table + "_sq.nextval, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
+    return citation;
   }
 
-  private void loadNameTaxonPair(String datasetPresenterId, NameTaxonPair pair,
-      PreparedStatement stmt) throws SQLException {
-    stmt.setString(1, datasetPresenterId);
-    stmt.setString(2, pair.getName());
-    stmt.setInt(3, pair.getTaxonId());
-    stmt.execute();
-  }
-
-  PreparedStatement getReferenceStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetModelRef" + suffix;
-    String sql = "INSERT INTO "
-        + table
-        + " (dataset_model_ref_id, dataset_presenter_id, record_type, target_type, target_name)"
-        + " VALUES (" + table + "_sq.nextval, ?, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
-  }
-
-  private void loadHistory(String datasetPresenterId, History history,
-      PreparedStatement stmt) throws SQLException {
-    stmt.setString(1, datasetPresenterId);
-    stmt.setFloat(2, history.getBuildNumber());
-    stmt.setString(3, history.getGenomeSource());
-    stmt.setString(4, history.getGenomeVersion());
-    stmt.setString(5, history.getAnnotationSource());
-    stmt.setString(6, history.getAnnotationVersion());
-    stmt.setString(7, history.getFunctionalAnnotationSource());
-    stmt.setString(8, history.getFunctionalAnnotationVersion());
-    stmt.setString(9, history.getComment());
-    stmt.execute();
-  }
-
-  PreparedStatement getHistoryStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetHistory" + suffix;
-    String sql = "INSERT INTO "
-        + table
-        + " (dataset_history_id, dataset_presenter_id, build_number, genome_source, genome_version, annotation_source, annotation_version, functional_annotation_source, functional_annotation_version, note)"
-        + " VALUES (" + table + "_sq.nextval, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
-  }
-
-  private void loadModelReference(String datasetPresenterId, ModelReference ref,
-      PreparedStatement stmt) throws SQLException {
-
-    stmt.setString(1, datasetPresenterId);
-    stmt.setString(2, ref.getRecordClassName());
-    stmt.setString(3, ref.getTargetType());
-    stmt.setString(4, ref.getTargetName().replace(":", ""));
-
-
-
-    stmt.execute();
-  }
-
-  PreparedStatement getLinkStmt() throws SQLException {
-    String table = config.getUsername() + ".DatasetHyperLink" + suffix;
-    String sql = "INSERT INTO " + table
-        + " (dataset_link_id, dataset_presenter_id, text, description, url, isPublication)" + " VALUES ("
-        + table + "_sq.nextval, ?, ?, ?, ?, ?)";
-    return dbConnection.prepareStatement(sql);
-  }
-
-  private void loadLink(String datasetPresenterId, HyperLink link,
-      PreparedStatement stmt) throws SQLException {
-    stmt.setString(1, datasetPresenterId);
-    stmt.setString(2, link.getText());
-    stmt.setString(3, link.getDescription());
-    stmt.setString(4, link.getUrl());
-    stmt.setString(5, link.getIsPublication());
-    stmt.execute();
-  }
-
-
   // ///////////// Static methods //////////////////////////////
 
   private static Options declareOptions() {
@@ -640,7 +1109,8 @@ public class DatasetPresenterSetLoader {
         false, true);
 
     CliUtil.addOption(options, "instance",
-        "the name of the instance to write to", true, true);
+        "the name of the instance to write to, or a comma delimited list of instances to validate against and write to concurrently",
+        true, true);
 
     CliUtil.addOption(
         options,
@@ -651,6 +1121,66 @@ public class DatasetPresenterSetLoader {
     CliUtil.addOption(options, "report",
         "the name of the instance to write to", false, false);
 
+    CliUtil.addOption(
+        options,
+        "diff",
+        "update the existing tables with the given suffix in place, writing only DatasetPresenters whose content changed since they were loaded",
+        false, false);
+
+    CliUtil.addOption(
+        options,
+        "resume",
+        "continue a load into the tables with the given suffix that failed part way, skipping DatasetPresenters it already loaded",
+        false, false);
+
+    CliUtil.addOption(
+        options,
+        "normalized",
+        "write contacts and hyperlinks once each, in shared tables mapped to DatasetPresenters, behind views shaped like the usual DatasetContact and DatasetHyperLink tables",
+        false, false);
+
+    CliUtil.addOption(
+        options,
+        "staged",
+        "build the tables with the given suffix out of readers' sight, then index them, verify their row counts and switch the unsuffixed synonyms to them, one at a time (restoring those switched if one fails)",
+        false, false);
+
+    CliUtil.addOption(
+        options,
+        "verify",
+        "instead of loading, check that the tables with the given suffix hold the rows the DatasetPresenters give, comparing per-presenter row counts and hash sums computed in the database",
+        false, false);
+
+    CliUtil.addOption(
+        options,
+        "sink",
+        "where to load DatasetPresenters: " + SINK_JDBC + " (the default; the tables in the instance), "
+            + SINK_FILES + " (bulk loader files, with SQL*Loader control files, in -outputDir) or "
+            + SINK_EMBEDDED + " (an embedded H2 database; in memory, or in -outputDir if given)",
+        false, true);
+
+    CliUtil.addOption(options, "datasourceSnapshot",
+        "validate against this local snapshot of Apidb.Datasource, exporting it first if it is missing or the table has changed since",
+        false, true);
+
+    CliUtil.addOption(options, "offline",
+        "use the -datasourceSnapshot as is, without checking it against the database (with -report, no database is needed at all)",
+        false, false);
+
+    CliUtil.addOption(options, "checkPatternOverlap",
+        "also report every pair of DatasetPresenters or InternalDatasets whose names or datasetNamePatterns could claim the same dataset name, even if no Apidb.Datasource row is matched by both",
+        false, false);
+
+    CliUtil.addOption(options, "metricsFile",
+        "write a JSON report of per-table counters, per-phase timings and the slowest DatasetPresenters to this file at the end of the run (with several instances, one file each, named after the instance)",
+        false, true);
+
+    CliUtil.addOption(options, "jmx",
+        "expose the load's metrics over JMX while it runs", false, false);
+
+    CliUtil.addOption(options, "outputDir",
+        "the directory for the " + SINK_FILES + " and " + SINK_EMBEDDED + " sinks", false, true);
+
     return options;
   }
 
@@ -666,7 +1196,7 @@ public class DatasetPresenterSetLoader {
     // parse command line
     Options options = declareOptions();
     String cmdlineSyntax = cmdName
-        + " -presentersDir presenters_dir -contactsXmlFile contacts_file -tuningPropsXmlFile propFile -instance instance_name -suffix suffix [-defaultInjectorClassesFile tab_file] [-report]";
+        + " -presentersDir presenters_dir -contactsXmlFile contacts_file -tuningPropsXmlFile propFile -instance instance_name[,instance_name...] -suffix suffix [-defaultInjectorClassesFile tab_file] [-report | -verify | -diff | -resume] [-normalized] [-staged] [-sink jdbc|files|embedded [-outputDir dir]] [-datasourceSnapshot file [-offline]] [-checkPatternOverlap] [-metricsFile file] [-jmx]";
     String cmdDescrip = "Read provided dataset presenter files and inject templates into the presentation layer.";
     CommandLine cmdLine = CliUtil.parseOptions(cmdlineSyntax, cmdDescrip,
         getUsageNotes(), options, args);
@@ -675,37 +1205,226 @@ public class DatasetPresenterSetLoader {
   }
 
   public static DatasetPresenterSetLoader constructLoader(CommandLine cmdLine) {
-    String presentersDir = cmdLine.getOptionValue("presentersDir");
-    String globalPresentersFile = cmdLine.getOptionValue("globalPresentersFile");
-    String contactsFile = cmdLine.getOptionValue("contactsXmlFile");
+    DatasetPresenterSetLoader dpsl = constructUnvalidatedLoader(cmdLine,
+        cmdLine.getOptionValue("instance"));
+    dpsl.setDatasourceSnapshot(cmdLine.getOptionValue("datasourceSnapshot"), cmdLine.hasOption("offline"));
+    dpsl.setCheckPatternOverlap(cmdLine.hasOption("checkPatternOverlap"));
+    dpsl.setDatasetPresenterSet(parsePresenters(cmdLine));
+    dpsl.validate();
+    return dpsl;
+  }
+
+  private static DatasetPresenterSetLoader constructUnvalidatedLoader(
+      CommandLine cmdLine, String instance) {
     String propFile = cmdLine.getOptionValue("tuningPropsXmlFile");
+    String contactsFile = cmdLine.getOptionValue("contactsXmlFile");
     String defaultInjectorsFile = cmdLine.getOptionValue("defaultInjectorClassesFile");
     String defaultLinksFile = cmdLine.getOptionValue("defaultHyperLinksFile");
-
-    String instance = cmdLine.getOptionValue("instance");
     String suffix = cmdLine.getOptionValue("suffix");
+    return new DatasetPresenterSetLoader(propFile, contactsFile, defaultInjectorsFile, defaultLinksFile, instance, suffix);
+  }
+
+  private static DatasetPresenterSet parsePresenters(CommandLine cmdLine) {
+    String presentersDir = cmdLine.getOptionValue("presentersDir");
+    String globalPresentersFile = cmdLine.getOptionValue("globalPresentersFile");
 
     System.err.println("Parsing and validating DatasetPresenters XML files found in directory "
         + presentersDir);
 
     // ADDS PROPS HERE
-    DatasetPresenterSet datasetPresenterSet = DatasetPresenterSet.createFromPresentersDir(presentersDir, globalPresentersFile);
-    DatasetPresenterSetLoader dpsl = new DatasetPresenterSetLoader(propFile, contactsFile, defaultInjectorsFile, defaultLinksFile, instance, suffix);
-    dpsl.setDatasetPresenterSet(datasetPresenterSet);
+    return DatasetPresenterSet.createFromPresentersDir(presentersDir, globalPresentersFile);
+  }
+
+  /**
+   * Validate the presenter set against this loader's instance (see
+   * syncPresenterSetWithDatasetTable)
+   */
+  void validate() {
+    ValidationErrors errors = new ValidationErrors();
+
+    // names and patterns that could overlap are found without the database
+    if (checkPatternOverlap) {
+      for (String conflict : new DatasetNamePatternAnalyzer(dps).findConflicts()) {
+        errors.add("datasetNamePatterns", conflict);
+      }
+    }
 
     // RUNS SQL HERE
-    Set<String> namesFromDbNotFound = dpsl.syncPresenterSetWithDatasetTable();
-    datasetPresenterSet.addCategoriesForPattern();
+    long start = metrics.startPhase("datasourceSync");
+    Set<String> namesFromDbNotFound = syncPresenterSetWithDatasetTable(errors);
+    metrics.endPhase("datasourceSync", start);
 
     if (namesFromDbNotFound.size() != 0)
-      throw new UserException(
-          "The following Dataset names in Apidb.Datasource are not mentioned or matched by the input DatasetPresenters:"
+      errors.add("Apidb.Datasource",
+          "The following Dataset names are not mentioned or matched by the input DatasetPresenters:"
               + NL + setToString(namesFromDbNotFound));
 
-    System.err.println("Validation complete");
+    errors.throwIfAny(instance);
+    dps.addCategoriesForPattern();
+
+    System.err.println("Validation against " + instance + " complete");
+  }
+
+  /**
+   * @return a loader for another instance, sharing this loader's parsed
+   *         configuration, contacts and default links, and its modes
+   */
+  DatasetPresenterSetLoader forInstance(String otherInstance) {
+    DatasetPresenterSetLoader dpsl = new DatasetPresenterSetLoader(config,
+        allContacts, defaultHyperLinks, connectionFactory, otherInstance, suffix);
+    dpsl.propFileName = propFileName;
+    dpsl.defaultInjectorsFileName = defaultInjectorsFileName;
+    dpsl.diffMode = diffMode;
+    dpsl.resumeMode = resumeMode;
+    dpsl.normalized = normalized;
+    dpsl.staged = staged;
+    dpsl.checkPatternOverlap = checkPatternOverlap;
     return dpsl;
   }
 
+  /**
+   * Load this loader's (validated) presenter set, managing the schema of the
+   * tables as the sink requires.
+   */
+  void load(String sinkType, String outputDir) {
+    if (staged && !sinkType.equals(SINK_JDBC))
+      throw new UserException("A staged build requires the " + SINK_JDBC + " sink");
+    if (staged && diffMode)
+      throw new UserException("A staged build loads new tables; it can't be combined with -diff");
+    setRowSink(constructRowSink(sinkType, outputDir, this));
+
+    if (sinkType.equals(SINK_EMBEDDED)) {
+      // the embedded sink manages its own schema
+      loadDatasetPresenterSet();
+    }
+    else {
+      if (diffMode || resumeMode) {
+        schemaCreateSequences();
+      }
+      else {
+        schemaInstall();
+      }
+      loadDatasetPresenterSet();
+      if (staged) {
+        schemaCreateIndexes();
+        verifyRowCounts();
+      }
+      schemaDropConstraints();
+      if (staged)
+        schemaSwapSynonyms();
+    }
+  }
+
+  /**
+   * Validate and load one parsed presenter set into several instances
+   * concurrently. Each instance gets its own copy of the set (they pick up
+   * different Datasource rows) and runs its own DatasetPublication query for
+   * each citation; only the NCBI lookups of citations missing from an
+   * instance's table are shared, as the copies share Publication objects.
+   *
+   * The options are handled as for a single instance: -report only
+   * validates, and otherwise -verify verifies instead of loading.
+   *
+   * @return the exit status: 0 if all instances succeeded, EXIT_INVALID if
+   *         those that failed all failed validation, and 1 otherwise
+   */
+  static int loadInstances(CommandLine cmdLine, List<String> instances) {
+    String sinkType = cmdLine.getOptionValue("sink", SINK_JDBC);
+    if (!sinkType.equals(SINK_JDBC))
+      throw new UserException("Loading more than one instance requires the " + SINK_JDBC + " sink");
+    if (cmdLine.hasOption("datasourceSnapshot"))
+      throw new UserException("A Datasource snapshot copies one instance; it can't be used with several");
+
+    DatasetPresenterSet parsedSet = parsePresenters(cmdLine);
+    DatasetPresenterSetLoader template = constructUnvalidatedLoader(cmdLine, null);
+    template.setDiffMode(cmdLine.hasOption("diff"));
+    template.setResumeMode(cmdLine.hasOption("resume"));
+    template.setNormalized(cmdLine.hasOption("normalized"));
+    template.setStaged(cmdLine.hasOption("staged"));
+    template.setCheckPatternOverlap(cmdLine.hasOption("checkPatternOverlap"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(instances.size());
+    Map<String, Future<Void>> results = new LinkedHashMap<String, Future<Void>>();
+    for (String instance : instances) {
+      DatasetPresenterSetLoader dpsl = template.forInstance(instance);
+      dpsl.setDatasetPresenterSet(parsedSet.copy());
+      if (cmdLine.hasOption("jmx"))
+        dpsl.metrics.registerMBean();
+      String metricsFile = getMetricsFileName(cmdLine.getOptionValue("metricsFile"), instance);
+      results.put(instance, executor.submit(() -> {
+        try {
+          dpsl.validate();
+          if (!cmdLine.hasOption("report")) {
+            if (cmdLine.hasOption("verify"))
+              dpsl.verifyLoadedTables();
+            else
+              dpsl.load(sinkType, null);
+          }
+        } finally {
+          if (metricsFile != null)
+            dpsl.metrics.writeJson(metricsFile);
+        }
+        return null;
+      }));
+    }
+    executor.shutdown();
+
+    Set<String> failed = new LinkedHashSet<String>();
+    boolean otherFailure = false;
+    StringBuilder report = new StringBuilder(NL + "Results:" + NL);
+    for (Map.Entry<String, Future<Void>> result : results.entrySet()) {
+      try {
+        result.getValue().get();
+        report.append("  " + result.getKey() + ": OK" + NL);
+      } catch (ExecutionException e) {
+        failed.add(result.getKey());
+        if (!(e.getCause() instanceof ValidationException))
+          otherFailure = true;
+        LOG.error("Loading " + result.getKey() + " failed", e.getCause());
+        report.append("  " + result.getKey() + ": FAILED: " + e.getCause().getMessage() + NL);
+      } catch (InterruptedException e) {
+        throw new UnexpectedException(e);
+      }
+    }
+    System.err.println(report);
+    if (failed.isEmpty()) return 0;
+    return otherFailure ? 1 : EXIT_INVALID;
+  }
+
+  static PresenterRowSink constructRowSink(String sinkType, String outputDir,
+      DatasetPresenterSetLoader dpsl) {
+    String schema = dpsl.config.getUsername();
+    if (sinkType.equals(SINK_JDBC)) {
+      return dpsl.getRowSink();
+    }
+    if (sinkType.equals(SINK_FILES)) {
+      if (outputDir == null)
+        throw new UserException("The " + SINK_FILES + " sink requires -outputDir");
+      if (dpsl.diffMode || dpsl.resumeMode)
+        throw new UserException("The " + SINK_FILES + " sink does not support -diff or -resume");
+      return new FilePresenterRowSink(outputDir, schema, dpsl.suffix);
+    }
+    if (sinkType.equals(SINK_EMBEDDED)) {
+      String url = outputDir == null ? EmbeddedPresenterRowSink.DEFAULT_URL
+          : "jdbc:h2:" + new File(outputDir, "datasetPresenters").getAbsolutePath();
+      return new EmbeddedPresenterRowSink(url, schema, dpsl.suffix, dpsl.normalized);
+    }
+    throw new UserException("Unknown sink '" + sinkType + "'.  Use one of "
+        + SINK_JDBC + ", " + SINK_FILES + ", " + SINK_EMBEDDED);
+  }
+
+  /**
+   * @return the metrics file for one of several instances: the instance name
+   *         inserted before the file's extension
+   */
+  private static String getMetricsFileName(String metricsFile, String instance) {
+    if (metricsFile == null) return null;
+    int dot = metricsFile.lastIndexOf('.');
+    return dot <= metricsFile.lastIndexOf(File.separatorChar)
+        ? metricsFile + "." + instance
+        : metricsFile.substring(0, dot) + "." + instance + metricsFile.substring(dot);
+  }
+
   private static String setToString(Set<String> set) {
     StringBuffer buf = new StringBuffer();
     for (String s : set)
@@ -715,16 +1434,43 @@ public class DatasetPresenterSetLoader {
 
   public static void main(String[] args) {
     CommandLine cmdLine = getCmdLine(args);
+    List<String> instances = Arrays.asList(cmdLine.getOptionValue("instance").split(","));
 
     try {
-      // does all validation of presenters against Apidb.Datasource
-      DatasetPresenterSetLoader dpsl = constructLoader(cmdLine);
+      if (instances.size() > 1) {
+        int status = loadInstances(cmdLine, instances);
+        if (status != 0)
+          System.exit(status);
+        return;
+      }
 
-      if (!cmdLine.hasOption("report")) {
-        dpsl.schemaInstall();
-        dpsl.loadDatasetPresenterSet();
-        dpsl.schemaDropConstraints();
+      DatasetPresenterSetLoader dpsl = constructUnvalidatedLoader(cmdLine, instances.get(0));
+      dpsl.setDatasourceSnapshot(cmdLine.getOptionValue("datasourceSnapshot"), cmdLine.hasOption("offline"));
+      dpsl.setCheckPatternOverlap(cmdLine.hasOption("checkPatternOverlap"));
+      if (cmdLine.hasOption("jmx"))
+        dpsl.metrics.registerMBean();
+      try {
+        // does all validation of presenters against Apidb.Datasource
+        dpsl.setDatasetPresenterSet(parsePresenters(cmdLine));
+        dpsl.validate();
+
+        if (!cmdLine.hasOption("report")) {
+          dpsl.setDiffMode(cmdLine.hasOption("diff"));
+          dpsl.setResumeMode(cmdLine.hasOption("resume"));
+          dpsl.setNormalized(cmdLine.hasOption("normalized"));
+          dpsl.setStaged(cmdLine.hasOption("staged"));
+          if (cmdLine.hasOption("verify"))
+            dpsl.verifyLoadedTables();
+          else
+            dpsl.load(cmdLine.getOptionValue("sink", SINK_JDBC), cmdLine.getOptionValue("outputDir"));
+        }
+      } finally {
+        if (cmdLine.hasOption("metricsFile"))
+          dpsl.metrics.writeJson(cmdLine.getOptionValue("metricsFile"));
       }
+    } catch (ValidationException ex) {
+      System.err.println(NL + ex.getMessage());
+      System.exit(EXIT_INVALID);
     } catch (UserException ex) {
       System.err.println(NL + "Error: " + ex.getMessage() + NL);
       System.exit(1);
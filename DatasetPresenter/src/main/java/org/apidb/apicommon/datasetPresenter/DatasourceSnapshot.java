@@ -0,0 +1,232 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * A local copy of the Apidb.Datasource columns DatasetPresenter validation
+ * reads, so presenters can be validated without a database.
+ *
+ * The snapshot is a tab delimited UTF-8 file. Its first line holds the
+ * fingerprint of the table it was exported from (row count and latest
+ * modification_date); the rest hold name, taxon_id, type, subtype and
+ * is_species_scope, with an empty field for null. When a database is
+ * reachable, the snapshot is exported again only if the table's fingerprint
+ * no longer matches.
+ *
+ * Name patterns are matched with SQL LIKE semantics ('%' and '_'), looking
+ * only at the names that start with the pattern's literal prefix.
+ */
+class DatasourceSnapshot {
+
+  private static final String FINGERPRINT_MARK = "#fingerprint";
+
+  /**
+   * One row of Apidb.Datasource, as validation reads it.
+   */
+  static class Row {
+    private final String _name;
+    private final int _taxonId;
+    private final String _type;
+    private final String _subtype;
+    private final boolean _isSpeciesScope;
+
+    Row(String name, int taxonId, String type, String subtype, boolean isSpeciesScope) {
+      _name = name;
+      _taxonId = taxonId;
+      _type = type;
+      _subtype = subtype;
+      _isSpeciesScope = isSpeciesScope;
+    }
+
+    String getName() { return _name; }
+    int getTaxonId() { return _taxonId; }
+    String getType() { return _type; }
+    String getSubtype() { return _subtype; }
+    boolean getIsSpeciesScope() { return _isSpeciesScope; }
+  }
+
+  private final String _fingerprint;
+
+  // sorted by name, so the names sharing a prefix are a contiguous range
+  private final TreeMap<String, Row> _rows = new TreeMap<String, Row>();
+
+  private DatasourceSnapshot(String fingerprint) {
+    _fingerprint = fingerprint;
+  }
+
+  String getFingerprint() {
+    return _fingerprint;
+  }
+
+  Set<String> getNames() {
+    return Collections.unmodifiableSet(_rows.keySet());
+  }
+
+  /**
+   * @return the rows whose name is LIKE the pattern, in name order
+   */
+  List<Row> findRows(String namePattern) {
+    String prefix = getLiteralPrefix(namePattern);
+    List<Row> rows = new ArrayList<Row>();
+    if (prefix.length() == namePattern.length()) {
+      Row row = _rows.get(namePattern);
+      if (row != null) rows.add(row);
+      return rows;
+    }
+    Pattern regex = likeToRegex(namePattern);
+    Map<String, Row> candidates = prefix.isEmpty() ? _rows
+        : _rows.subMap(prefix, prefix + Character.MAX_VALUE);
+    for (Row row : candidates.values()) {
+      if (regex.matcher(row.getName()).matches())
+        rows.add(row);
+    }
+    return rows;
+  }
+
+  static String getLiteralPrefix(String likePattern) {
+    int i = 0;
+    while (i < likePattern.length() && likePattern.charAt(i) != '%' && likePattern.charAt(i) != '_')
+      i++;
+    return likePattern.substring(0, i);
+  }
+
+  static Pattern likeToRegex(String likePattern) {
+    StringBuilder regex = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    for (char c : likePattern.toCharArray()) {
+      if (c == '%' || c == '_') {
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '%' ? ".*" : ".");
+      }
+      else {
+        literal.append(c);
+      }
+    }
+    if (literal.length() > 0)
+      regex.append(Pattern.quote(literal.toString()));
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * Get the snapshot in the file, exporting it first if it is missing or out
+   * of date.
+   *
+   * @param connection connection to the instance whose Apidb.Datasource the
+   *          snapshot copies, or null to use the file as is (offline)
+   */
+  static DatasourceSnapshot load(File file, Connection connection) {
+    try {
+      if (connection == null) {
+        if (!file.exists())
+          throw new UserException("Datasource snapshot " + file + " does not exist.  Create it with a run that can reach the database");
+        return read(file);
+      }
+      String fingerprint = queryFingerprint(connection);
+      if (file.exists()) {
+        DatasourceSnapshot snapshot = read(file);
+        if (snapshot.getFingerprint().equals(fingerprint)) {
+          System.err.println("Datasource snapshot " + file + " is up to date");
+          return snapshot;
+        }
+      }
+      System.err.println("Exporting Apidb.Datasource to snapshot " + file);
+      DatasourceSnapshot snapshot = export(connection, fingerprint);
+      snapshot.write(file);
+      return snapshot;
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    } catch (IOException e) {
+      throw new UserException("Can't read or write Datasource snapshot " + file, e);
+    }
+  }
+
+  private static String queryFingerprint(Connection connection) throws SQLException {
+    String sql = "select count(*), to_char(max(modification_date), 'YYYY-MM-DD HH24:MI:SS') from apidb.datasource";
+    try (Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(sql)) {
+      rs.next();
+      return rs.getLong(1) + "\t" + rs.getString(2);
+    }
+  }
+
+  private static DatasourceSnapshot export(Connection connection, String fingerprint) throws SQLException {
+    DatasourceSnapshot snapshot = new DatasourceSnapshot(fingerprint);
+    String sql = "select name, taxon_id, type, subtype, is_species_scope from apidb.datasource";
+    try (Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(sql)) {
+      while (rs.next()) {
+        snapshot.add(new Row(rs.getString(1), rs.getInt(2), rs.getString(3),
+            rs.getString(4), rs.getBoolean(5)));
+      }
+    }
+    return snapshot;
+  }
+
+  private void add(Row row) {
+    _rows.put(row.getName(), row);
+  }
+
+  private static DatasourceSnapshot read(File file) throws IOException {
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String header = in.readLine();
+      if (header == null || !header.startsWith(FINGERPRINT_MARK + "\t"))
+        throw new UserException("File " + file + " is not a Datasource snapshot");
+      DatasourceSnapshot snapshot = new DatasourceSnapshot(header.substring(FINGERPRINT_MARK.length() + 1));
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] columns = line.split("\t", -1);
+        if (columns.length != 5)
+          throw new UserException("Datasource snapshot " + file + " has a malformed row: " + line);
+        snapshot.add(new Row(columns[0],
+            columns[1].isEmpty() ? 0 : Integer.parseInt(columns[1]),
+            emptyToNull(columns[2]), emptyToNull(columns[3]),
+            columns[4].equals("1")));
+      }
+      return snapshot;
+    }
+  }
+
+  private void write(File file) throws IOException {
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      out.write(FINGERPRINT_MARK + "\t" + _fingerprint + "\n");
+      for (Row row : _rows.values()) {
+        out.write(row.getName() + "\t" + row.getTaxonId() + "\t"
+            + nullToEmpty(row.getType()) + "\t" + nullToEmpty(row.getSubtype())
+            + "\t" + (row.getIsSpeciesScope() ? "1" : "0") + "\n");
+      }
+    }
+  }
+
+  private static String emptyToNull(String value) {
+    return value.isEmpty() ? null : value;
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
@@ -3,15 +3,17 @@
  */
 package org.apidb.apicommon.datasetPresenter;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.reflections.Reflections;
 import org.reflections.scanners.ResourcesScanner;
@@ -34,7 +36,15 @@ import org.reflections.util.FilterBuilder;
  * 
  * It will call the DatasetInjector.discover() method to test if an injector is
  * a match, if no injector can be matched/discovered, it will thrown an
- * UserException.
+ * UserException. The presenter's property names are made a key set once, and
+ * injectors that don't override discover() are matched by testing it against
+ * their declared properties (see PropertyDeclaration).
+ * 
+ * The injector classes of the packages are looked up once per process for
+ * each value of "discover.package", and only the discoverable ones are kept,
+ * so discovery for each presenter does not touch the classpath. Classes come
+ * from the build-time registry (see DatasetInjectorRegistry) for the jars and
+ * class directories that have one; the others are scanned.
  * 
  * @author jerric
  * 
@@ -45,6 +55,9 @@ public class DiscoverableDatasetInjector extends DatasetInjector {
 
   private static final String DEFAULT_PACKAGE = "org.apidb.apicommon.model.datasetInjector";
 
+  // the discoverable injector classes found, per value of "discover.package"
+  private static final Map<String, List<Class<? extends DatasetInjector>>> DISCOVERABLE_CLASSES = new ConcurrentHashMap<>();
+
   private final List<DatasetInjector> injectors = new ArrayList<>();
 
   /**
@@ -59,44 +72,73 @@ public class DiscoverableDatasetInjector extends DatasetInjector {
     if (packageString == null)
       packageString = DEFAULT_PACKAGE;
 
+    // the candidates' declarations are captured by now, so their names are in the key set
+    List<Class<? extends DatasetInjector>> candidates = getDiscoverableClasses(packageString);
+    BitSet propKeys = PropertyDeclaration.getKeySet(propValues.keySet());
+    for (Class<? extends DatasetInjector> injectorClass : candidates) {
+      DatasetInjector injector = DatasetInjectorConstructor.newInjector(injectorClass);
+      injector.setDatasetName(getDatasetName());
+      injector.setPrimaryContact(getPrimaryContact());
+
+      if (injector.discover(propValues, propKeys)) {
+        injector.addPropValues(propValues);
+        injectors.add(injector);
+      }
+    }
+
+    // if no injectors are discovered, raise an error
+    if (injectors.size() == 0)
+      throw new UserException(
+          "No injectors can be found with the given property values.");
+  }
+
+  /**
+   * @return the concrete, discoverable DatasetInjector classes in the packages
+   *         (a list separated by ',' or ';'), scanning them on first use
+   */
+  static List<Class<? extends DatasetInjector>> getDiscoverableClasses(String packageString) {
+    return DISCOVERABLE_CLASSES.computeIfAbsent(packageString, DiscoverableDatasetInjector::scanPackages);
+  }
+
+  private static List<Class<? extends DatasetInjector>> scanPackages(String packageString) {
+    Set<Class<? extends DatasetInjector>> classes = new LinkedHashSet<>();
     FilterBuilder filterBuilder = new FilterBuilder();
-    Set<URL> urls = new HashSet<>();
+    Set<URL> unregistered = new HashSet<>();
     for (String pack : packageString.split("[\\,\\;]")) {
-      filterBuilder.includePackage(pack);
-      urls.addAll(ClasspathHelper.forPackage(pack));
+      boolean scanned = false;
+      for (URL root : ClasspathHelper.forPackage(pack)) {
+        if (DatasetInjectorRegistry.hasRegistry(root)) {
+          classes.addAll(DatasetInjectorRegistry.getInjectorClasses(root, pack));
+        }
+        else {
+          unregistered.add(root);
+          scanned = true;
+        }
+      }
+      if (scanned)
+        filterBuilder.includePackage(pack);
     }
 
-    ConfigurationBuilder configBuilder = new ConfigurationBuilder();
-    configBuilder.filterInputsBy(filterBuilder).addUrls(urls).setScanners(
-        new SubTypesScanner(), new ResourcesScanner());
+    // the jars and class directories compiled without the registry processor
+    if (!unregistered.isEmpty()) {
+      ConfigurationBuilder configBuilder = new ConfigurationBuilder();
+      configBuilder.filterInputsBy(filterBuilder).addUrls(unregistered).setScanners(
+          new SubTypesScanner(), new ResourcesScanner());
+
+      classes.addAll(new Reflections(configBuilder).getSubTypesOf(DatasetInjector.class));
+    }
 
-    Reflections reflections = new Reflections(configBuilder);
-    Set<Class<? extends DatasetInjector>> classes = reflections.getSubTypesOf(DatasetInjector.class);
+    List<Class<? extends DatasetInjector>> discoverable = new ArrayList<>();
     for (Class<? extends DatasetInjector> injectorClass : classes) {
       if (Modifier.isAbstract(injectorClass.getModifiers()))
         continue;
-
-      try {
-        DatasetInjector injector = injectorClass.getDeclaredConstructor().newInstance();
-        injector.setDatasetName(getDatasetName());
-        injector.setPrimaryContact(getPrimaryContact());
-
-        if (injector.isDiscoverable() && injector.discover(propValues)) {
-          injector.addPropValues(propValues);
-          injectors.add(injector);
-        }
-      } catch (InstantiationException | IllegalAccessException |
-          IllegalArgumentException | InvocationTargetException |
-          NoSuchMethodException | SecurityException ex) {
-        throw new UserException(
-            "Unable to create instance of " + injectorClass, ex);
+      DatasetInjector injector = DatasetInjectorConstructor.newInjector(injectorClass);
+      if (injector.isDiscoverable()) {
+        PropertyDeclaration.getDeclaration(injector);
+        discoverable.add(injectorClass);
       }
     }
-
-    // if no injectors are discovered, raise an error
-    if (injectors.size() == 0)
-      throw new UserException(
-          "No injectors can be found with the given property values.");
+    return discoverable;
   }
 
   /**
@@ -135,6 +177,24 @@ public class DiscoverableDatasetInjector extends DatasetInjector {
     }
   }
 
+  @Override
+  protected boolean isOutputCacheable() {
+    for (DatasetInjector injector : injectors) {
+      if (!injector.isOutputCacheable()) return false;
+    }
+    return true;
+  }
+
+  @Override
+  Collection<DatasetInjector> getOutputInjectors() {
+    List<DatasetInjector> outputInjectors = new ArrayList<>();
+    outputInjectors.add(this);
+    for (DatasetInjector injector : injectors) {
+      outputInjectors.addAll(injector.getOutputInjectors());
+    }
+    return outputInjectors;
+  }
+
   public Collection<DatasetInjector> getInjectors() {
     return injectors;
   }
@@ -0,0 +1,75 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Writes DatasetPresenter rows into an embedded H2 database, running in Oracle
+ * compatibility mode so the loader's SQL works unchanged. The sink creates the
+ * DatasetPresenter tables and their sequences itself if they do not exist, so
+ * no tuning schema (or network) is needed. In the normalized layout it also
+ * creates the views that stand in for the tables the layout replaces.
+ *
+ * Use an in-memory URL (jdbc:h2:mem:...) to measure loader throughput, or a
+ * file URL to keep the result.
+ */
+class EmbeddedPresenterRowSink extends JdbcPresenterRowSink {
+
+  static final String DEFAULT_URL = "jdbc:h2:mem:datasetPresenters;DB_CLOSE_DELAY=-1";
+
+  EmbeddedPresenterRowSink(String url, String schema, String suffix,
+      boolean normalized) {
+    super(openConnection(url), schema, suffix, "embedded database " + url, normalized);
+    createSchema();
+  }
+
+  private static Connection openConnection(String url) {
+    String compatibleUrl = url.contains(";MODE=") ? url : url + ";MODE=Oracle";
+    try {
+      return DriverManager.getConnection(compatibleUrl, "sa", "");
+    } catch (SQLException e) {
+      throw new UserException("Can't open embedded database " + url, e);
+    }
+  }
+
+  /**
+   * Create the schema, the DatasetPresenter tables and their sequences, unless
+   * they already exist.
+   */
+  void createSchema() {
+    try (Statement stmt = getConnection().createStatement()) {
+      stmt.execute("CREATE SCHEMA IF NOT EXISTS " + getSchema());
+      for (PresenterTable table : PresenterTable.getTables(isNormalized())) {
+        stmt.execute(table.getCreateTableSql(getSchema(), getSuffix()));
+        if (table.getIdColumn() != null)
+          stmt.execute("CREATE SEQUENCE IF NOT EXISTS "
+              + table.getTableName(getSchema(), getSuffix()) + "_sq"
+              + " INCREMENT BY " + BlockIdAllocator.BLOCK_SIZE);
+      }
+      if (isNormalized()) {
+        for (PresenterTable table : PresenterTable.values()) {
+          if (table.getMapTable() != null)
+            stmt.execute(table.getCompatibilityViewSql(getSchema(), getSuffix()));
+        }
+      }
+      getConnection().commit();
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  /**
+   * Unlike the live JDBC sink, this sink owns its connection.
+   */
+  @Override
+  public void close() {
+    super.close();
+    try {
+      getConnection().close();
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apidb.apicommon.comparator.NaturalOrderComparator;
+
+/**
+ * The samples of each experiment, for DatasetInjector.getSampleList(). A
+ * sample is a global dataset with an experimentName property; its sampleName
+ * and snpStrainAbbrev are samples of the experiment named by its
+ * (organismAbbrev, datasetClassCategory, experimentName).
+ *
+ * The index is built in one pass over the global dataset properties, the
+ * first time it is asked for. It keeps each experiment's naturally sorted
+ * distinct samples, so a lookup is a copy, and the sample datasets, so
+ * samples of the asking dataset itself or of datasets whose names don't start
+ * with its organism abbrev can be left out as getSampleList() always has.
+ *
+ * There is one per GlobalDatasetPropertyIndex. It is thread-safe; the map
+ * must not change once it is used.
+ */
+class ExperimentSampleIndex {
+
+  private static class SampleDataset {
+    final String datasetName;
+    final List<String> samples = new ArrayList<String>(2);
+
+    SampleDataset(String datasetName) {
+      this.datasetName = datasetName;
+    }
+  }
+
+  private static class Experiment {
+    final List<SampleDataset> datasets = new ArrayList<SampleDataset>();
+    List<String> sortedSamples;
+  }
+
+  private final Map<String, Map<String, String>> _globalProps;
+
+  // from experiment key to the experiment, built on first use
+  private volatile Map<String, Experiment> _experiments;
+
+  ExperimentSampleIndex(Map<String, Map<String, String>> globalProps) {
+    _globalProps = globalProps;
+  }
+
+  /**
+   * @param datasetName the dataset asking, whose own samples are left out
+   * @return the experiment's naturally sorted distinct samples from sample
+   *         datasets whose names start with the organism abbrev, or null if
+   *         no dataset names the experiment
+   */
+  List<String> getSamples(String organismAbbrev, String datasetClassCategory,
+      String experimentName, String datasetName) {
+    String key = getExperimentKey(organismAbbrev, datasetClassCategory, experimentName);
+    GlobalPropertyReads.recordExperiment(key);
+    Experiment experiment = getExperiments().get(key);
+    if (experiment == null) return null;
+
+    List<String> samples = new ArrayList<String>();
+    boolean excluded = false;
+    for (SampleDataset dataset : experiment.datasets) {
+      if (!dataset.datasetName.startsWith(organismAbbrev) || dataset.datasetName.equals(datasetName))
+        excluded = true;
+      else
+        samples.addAll(dataset.samples);
+    }
+    return excluded ? sortDistinct(samples) : new ArrayList<String>(experiment.sortedSamples);
+  }
+
+  /**
+   * @return the names of the experiment's sample datasets, in map order
+   */
+  List<String> getDatasetNames(String experimentKey) {
+    List<String> names = new ArrayList<String>();
+    Experiment experiment = getExperiments().get(experimentKey);
+    if (experiment != null) {
+      for (SampleDataset dataset : experiment.datasets) {
+        names.add(dataset.datasetName);
+      }
+    }
+    return names;
+  }
+
+  // the same key getSampleList() has always joined experiments on
+  private static String getExperimentKey(String organismAbbrev, String datasetClassCategory,
+      String experimentName) {
+    return organismAbbrev + "_" + datasetClassCategory + "_" + experimentName;
+  }
+
+  /**
+   * Remove duplicates (NGS and CNV have dup experiment and samples) and sort.
+   * Samples that compare equal keep the order a HashSet of them gives, as they
+   * always have.
+   */
+  private static List<String> sortDistinct(List<String> samples) {
+    Set<String> distinctSamples = new HashSet<>();
+    distinctSamples.addAll(samples);
+    List<String> sorted = new ArrayList<String>(distinctSamples);
+    Collections.sort(sorted, new NaturalOrderComparator());
+    return sorted;
+  }
+
+  private Map<String, Experiment> getExperiments() {
+    Map<String, Experiment> experiments = _experiments;
+    if (experiments == null) {
+      synchronized (this) {
+        if (_experiments == null) _experiments = buildExperiments();
+        experiments = _experiments;
+      }
+    }
+    return experiments;
+  }
+
+  private Map<String, Experiment> buildExperiments() {
+    Map<String, Experiment> experiments = new HashMap<String, Experiment>();
+    for (Map.Entry<String, Map<String, String>> entry : _globalProps.entrySet()) {
+      Map<String, String> datasetProps = entry.getValue();
+      if (!datasetProps.containsKey("experimentName")) continue;
+
+      String key = getExperimentKey(datasetProps.get("organismAbbrev"),
+          datasetProps.get("datasetClassCategory"), datasetProps.get("experimentName"));
+      SampleDataset dataset = new SampleDataset(entry.getKey());
+      if (datasetProps.containsKey("sampleName")) dataset.samples.add(datasetProps.get("sampleName"));
+      if (datasetProps.containsKey("snpStrainAbbrev")) dataset.samples.add(datasetProps.get("snpStrainAbbrev"));
+      experiments.computeIfAbsent(key, k -> new Experiment()).datasets.add(dataset);
+    }
+
+    for (Experiment experiment : experiments.values()) {
+      List<String> samples = new ArrayList<String>();
+      for (SampleDataset dataset : experiment.datasets) {
+        samples.addAll(dataset.samples);
+      }
+      experiment.sortedSamples = sortDistinct(samples);
+    }
+    return experiments;
+  }
+}
@@ -0,0 +1,209 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes DatasetPresenter rows to tab delimited files, one per table, plus a
+ * SQL*Loader control file for each. Loading the files with sqlldr (direct
+ * path) into the tables made by presenterCreateSchema is much faster than row
+ * by row inserts for full rebuilds.
+ *
+ * File format:
+ * <ul>
+ * <li>fields are separated by tabs; a field containing a tab, a double quote,
+ * a line break or a record separator (0x1E) is enclosed in double quotes,
+ * with inner quotes doubled</li>
+ * <li>records end with an ASCII record separator (0x1E) followed by a
+ * newline, so text values may contain newlines. SQL*Loader splits records
+ * before it looks at quotes, so a value containing that pair can't be written
+ * and is rejected</li>
+ * <li>an empty field is null</li>
+ * </ul>
+ *
+ * Surrogate keys are numbered from 1 per table, so the files must be loaded
+ * into freshly created tables. Diff loads are not supported. Shared rows of
+ * the normalized layout (see PresenterTable) are written once each.
+ */
+class FilePresenterRowSink implements PresenterRowSink {
+
+  private static final String RECORD_END = "\u001E\n";
+
+  private final File _outputDir;
+  private final String _schema;
+  private final String _suffix;
+
+  private final Map<PresenterTable, Writer> _writers = new EnumMap<PresenterTable, Writer>(PresenterTable.class);
+  private final Map<PresenterTable, Long> _nextIds = new EnumMap<PresenterTable, Long>(PresenterTable.class);
+  private final Set<String> _sharedKeys = new HashSet<String>();
+  private LoaderMetrics _metrics = new LoaderMetrics(null);
+
+  FilePresenterRowSink(String outputDir, String schema, String suffix) {
+    _outputDir = new File(outputDir);
+    if (!_outputDir.isDirectory() && !_outputDir.mkdirs())
+      throw new UserException("Output dir " + outputDir
+          + " must be an existing directory or be creatable");
+    _schema = schema;
+    _suffix = suffix;
+  }
+
+  @Override
+  public String getDescription() {
+    return "bulk loader files in " + _outputDir;
+  }
+
+  @Override
+  public Map<String, String> getLoadedContentDigests() {
+    throw new UserException("Diff loads are not supported when writing bulk loader files");
+  }
+
+  @Override
+  public Map<String, String> getLoadedInputDigests() {
+    throw new UserException("Resumed loads are not supported when writing bulk loader files");
+  }
+
+  @Override
+  public void setMetrics(LoaderMetrics metrics) {
+    _metrics = metrics;
+  }
+
+  @Override
+  public void write(PresenterRows rows) {
+    try {
+      for (PresenterTable table : PresenterTable.values()) {
+        long start = System.nanoTime();
+        for (Object[] row : rows.getRows(table)) {
+          if (table.isShared() && !_sharedKeys.add(table.getBaseName() + "\t" + row[0]))
+            continue;
+          _metrics.addRow(table, row);
+          Writer writer = getWriter(table);
+          if (table.getIdColumn() != null) {
+            long id = _nextIds.get(table);
+            _nextIds.put(table, id + 1);
+            writer.write(Long.toString(id));
+            writer.write('\t');
+          }
+          for (int i = 0; i < row.length; i++) {
+            if (i > 0) writer.write('\t');
+            writer.write(formatValue(row[i]));
+          }
+          writer.write(RECORD_END);
+        }
+        _metrics.addExecute(table, 0, System.nanoTime() - start);
+      }
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  @Override
+  public void delete(String datasetPresenterId) {
+    throw new UserException("Diff loads are not supported when writing bulk loader files");
+  }
+
+  @Override
+  public void deleteUnmappedSharedRows() {
+    throw new UserException("Diff loads are not supported when writing bulk loader files");
+  }
+
+  @Override
+  public void commit() {
+    try {
+      for (Writer writer : _writers.values()) {
+        writer.flush();
+      }
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  @Override
+  public void rollback() {
+    // files written so far are left for inspection
+  }
+
+  @Override
+  public void close() {
+    try {
+      for (PresenterTable table : _writers.keySet()) {
+        _writers.get(table).close();
+        writeControlFile(table);
+      }
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  private Writer getWriter(PresenterTable table) throws IOException {
+    Writer writer = _writers.get(table);
+    if (writer == null) {
+      File file = new File(_outputDir, getDataFileName(table));
+      writer = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(file), StandardCharsets.UTF_8));
+      _writers.put(table, writer);
+      _nextIds.put(table, 1L);
+    }
+    return writer;
+  }
+
+  private String getDataFileName(PresenterTable table) {
+    return table.getBaseName() + _suffix + ".tsv";
+  }
+
+  static String formatValue(Object value) {
+    if (value == null) return "";
+    if (value instanceof Boolean) return ((Boolean) value) ? "1" : "0";
+    String text = String.valueOf(value);
+    if (text.contains(RECORD_END))
+      throw new UserException("Can't write a value containing the bulk loader record end"
+          + " (0x1E and a newline): " + text);
+    if (text.indexOf('\t') < 0 && text.indexOf('"') < 0
+        && text.indexOf('\n') < 0 && text.indexOf('\r') < 0 && text.indexOf('\u001E') < 0)
+      return text;
+    return "\"" + text.replace("\"", "\"\"") + "\"";
+  }
+
+  private void writeControlFile(PresenterTable table) throws IOException {
+    File file = new File(_outputDir, table.getBaseName() + _suffix + ".ctl");
+    StringBuilder ctl = new StringBuilder()
+        .append("LOAD DATA\n")
+        .append("CHARACTERSET UTF8\n")
+        .append("INFILE '").append(getDataFileName(table)).append("' \"str X'1E0A'\"\n")
+        .append("APPEND\n")
+        .append("INTO TABLE ").append(table.getTableName(_schema, _suffix)).append("\n")
+        .append("FIELDS TERMINATED BY X'09' OPTIONALLY ENCLOSED BY '\"'\n")
+        .append("TRAILING NULLCOLS\n")
+        .append("(");
+    if (table.getIdColumn() != null) {
+      ctl.append(table.getIdColumn()).append(" INTEGER EXTERNAL,\n ");
+    }
+    PresenterTable.Column[] columns = table.getColumns();
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) ctl.append(",\n ");
+      ctl.append(columns[i].getName()).append(" ").append(getLoaderType(columns[i].getType()));
+    }
+    ctl.append(")\n");
+
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      writer.write(ctl.toString());
+    }
+  }
+
+  private static String getLoaderType(PresenterTable.ColumnType type) {
+    switch (type) {
+      case CLOB: return "CHAR(10000000)";
+      case INTEGER: return "INTEGER EXTERNAL";
+      case FLOAT: return "FLOAT EXTERNAL";
+      default: return "CHAR(4000)";
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only index of the global dataset properties (the properties of every
+ * dataset, keyed by "projectName:datasetName" or datasetName), for injectors
+ * that look across datasets rather than at their own presenter.
+ *
+ * Datasets can be looked up by name suffix, by property value, and by project
+ * and organism, and a project dataset's organism (its
+ * "projectName:organismAbbrev_RSRC" dataset) is joined once, when the index is
+ * built. Lookups return dataset names in the order the global property map
+ * iterates them, which is the order an injector looping over the map would
+ * have seen them, so output built from them doesn't change.
+ *
+ * The index is built on first use, in one pass over the map, and lookups by a
+ * property or suffix are kept after the first. There is one index per run: it
+ * is kept for the global property map last asked for, and holds the run's
+ * OrganismResolver and ExperimentSampleIndex. Indexes are thread-safe; the map
+ * must not change once they are used.
+ *
+ * Lookups are recorded in GlobalPropertyReads: those of one dataset as a read
+ * of it, those across datasets as a read of all of them.
+ */
+public class GlobalDatasetPropertyIndex {
+
+  private static final String RSRC_SUFFIX = "_RSRC";
+
+  private static GlobalDatasetPropertyIndex _index;
+
+  private static class Index {
+    // from dataset name to its position in the map
+    final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+
+    // from reversed dataset name to dataset name, for suffix lookups
+    final NavigableMap<String, String> reversedNames = new TreeMap<String, String>();
+
+    // datasets whose names are qualified by their projectName property
+    final List<String> projectDatasetNames = new ArrayList<String>();
+
+    // from "projectName:organismAbbrev" to the organism's datasets
+    final Map<String, List<String>> organismDatasetNames = new HashMap<String, List<String>>();
+
+    // from project dataset name to the properties of its organism
+    final Map<String, Map<String, String>> organismProperties = new HashMap<String, Map<String, String>>();
+  }
+
+  private final Map<String, Map<String, String>> _globalProps;
+
+  private volatile Index _built;
+
+  private final Map<String, List<String>> _namesBySuffix = new ConcurrentHashMap<String, List<String>>();
+
+  // from property name to its values' datasets
+  private final Map<String, Map<String, List<String>>> _namesByProperty =
+      new ConcurrentHashMap<String, Map<String, List<String>>>();
+
+  private volatile OrganismResolver _organismResolver;
+  private volatile ExperimentSampleIndex _experimentSampleIndex;
+
+  private GlobalDatasetPropertyIndex(Map<String, Map<String, String>> globalProps) {
+    _globalProps = globalProps;
+  }
+
+  /**
+   * @return the index of the global dataset properties
+   */
+  static synchronized GlobalDatasetPropertyIndex getIndex(Map<String, Map<String, String>> globalProps) {
+    if (_index == null || _index._globalProps != globalProps)
+      _index = new GlobalDatasetPropertyIndex(globalProps);
+    return _index;
+  }
+
+  /**
+   * @return the properties of the dataset, or null if there is no such
+   *         dataset
+   */
+  public Map<String, String> getProperties(String datasetName) {
+    GlobalPropertyReads.recordDataset(datasetName);
+    Map<String, String> props = _globalProps.get(datasetName);
+    return props == null ? null : Collections.unmodifiableMap(props);
+  }
+
+  /**
+   * @return the names of the datasets whose names end with the suffix (eg,
+   *         "_ECAssociations_RSRC")
+   */
+  public List<String> getDatasetNamesEndingWith(String suffix) {
+    GlobalPropertyReads.recordAll();
+    return _namesBySuffix.computeIfAbsent(suffix, s -> {
+      String reversed = new StringBuilder(s).reverse().toString();
+      return inMapOrder(getBuilt().reversedNames.subMap(
+          reversed, true, reversed + Character.MAX_VALUE, false).values());
+    });
+  }
+
+  /**
+   * @return the names of the datasets with the property value
+   */
+  public List<String> getDatasetNamesWithValue(String property, String value) {
+    GlobalPropertyReads.recordAll();
+    List<String> names = getValues(property).get(value);
+    return names == null ? Collections.<String>emptyList() : names;
+  }
+
+  /**
+   * @return the names of the datasets whose property is "true", ignoring case
+   *         (eg, "isReferenceStrain")
+   */
+  public List<String> getDatasetNamesWithFlag(String property) {
+    GlobalPropertyReads.recordAll();
+    List<String> names = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> value : getValues(property).entrySet()) {
+      if ("true".equalsIgnoreCase(value.getKey())) names.addAll(value.getValue());
+    }
+    return inMapOrder(names);
+  }
+
+  /**
+   * @return the names of the datasets of projects: those with a projectName
+   *         property whose names start with it ("projectName:datasetName")
+   */
+  public List<String> getProjectDatasetNames() {
+    GlobalPropertyReads.recordAll();
+    return Collections.unmodifiableList(getBuilt().projectDatasetNames);
+  }
+
+  /**
+   * @return whether the dataset is one of getProjectDatasetNames()
+   */
+  public boolean isProjectDataset(String datasetName) {
+    GlobalPropertyReads.recordDataset(datasetName);
+    Map<String, String> props = _globalProps.get(datasetName);
+    return props != null && props.containsKey("projectName")
+        && datasetName.startsWith(props.get("projectName"));
+  }
+
+  /**
+   * @return the names of the project datasets with the organismAbbrev
+   */
+  public List<String> getOrganismDatasetNames(String projectName, String organismAbbrev) {
+    GlobalPropertyReads.recordAll();
+    List<String> names = getBuilt().organismDatasetNames.get(projectName + ":" + organismAbbrev);
+    return names == null ? Collections.<String>emptyList() : Collections.unmodifiableList(names);
+  }
+
+  /**
+   * @return the properties of the organism ("organismAbbrev_RSRC" dataset) of
+   *         the project, or null if there is none. If the projectName is null
+   *         the organism dataset's name is not qualified by a project.
+   */
+  public Map<String, String> getOrganismProperties(String projectName, String organismAbbrev) {
+    return getProperties((projectName == null ? "" : projectName + ":") + organismAbbrev + RSRC_SUFFIX);
+  }
+
+  /**
+   * @return the properties of the organism of a project dataset, joined on
+   *         its projectName and organismAbbrev, or null if it has none
+   */
+  public Map<String, String> getOrganismProperties(String datasetName) {
+    GlobalPropertyReads.recordAll();
+    Map<String, String> props = getBuilt().organismProperties.get(datasetName);
+    return props == null ? null : Collections.unmodifiableMap(props);
+  }
+
+  Map<String, Map<String, String>> getGlobalProperties() {
+    return _globalProps;
+  }
+
+  OrganismResolver getOrganismResolver() {
+    if (_organismResolver == null) {
+      synchronized (this) {
+        if (_organismResolver == null) _organismResolver = new OrganismResolver(_globalProps);
+      }
+    }
+    return _organismResolver;
+  }
+
+  ExperimentSampleIndex getExperimentSampleIndex() {
+    if (_experimentSampleIndex == null) {
+      synchronized (this) {
+        if (_experimentSampleIndex == null) _experimentSampleIndex = new ExperimentSampleIndex(_globalProps);
+      }
+    }
+    return _experimentSampleIndex;
+  }
+
+  private Map<String, List<String>> getValues(String property) {
+    return _namesByProperty.computeIfAbsent(property, p -> {
+      Map<String, List<String>> values = new HashMap<String, List<String>>();
+      for (Map.Entry<String, Map<String, String>> dataset : _globalProps.entrySet()) {
+        String value = dataset.getValue().get(p);
+        if (value != null)
+          values.computeIfAbsent(value, v -> new ArrayList<String>()).add(dataset.getKey());
+      }
+      for (Map.Entry<String, List<String>> value : values.entrySet()) {
+        value.setValue(Collections.unmodifiableList(value.getValue()));
+      }
+      return values;
+    });
+  }
+
+  private List<String> inMapOrder(Iterable<String> datasetNames) {
+    Map<String, Integer> ordinals = getBuilt().ordinals;
+    List<String> names = new ArrayList<String>();
+    for (String name : datasetNames) {
+      names.add(name);
+    }
+    names.sort(Comparator.comparing(ordinals::get));
+    return Collections.unmodifiableList(names);
+  }
+
+  private Index getBuilt() {
+    Index built = _built;
+    if (built == null) {
+      synchronized (this) {
+        if (_built == null) _built = build();
+        built = _built;
+      }
+    }
+    return built;
+  }
+
+  private Index build() {
+    Index index = new Index();
+    for (Map.Entry<String, Map<String, String>> dataset : _globalProps.entrySet()) {
+      String name = dataset.getKey();
+      Map<String, String> props = dataset.getValue();
+      index.ordinals.put(name, index.ordinals.size());
+      index.reversedNames.put(new StringBuilder(name).reverse().toString(), name);
+
+      String projectName = props.get("projectName");
+      if (projectName == null || !name.startsWith(projectName)) continue;
+      index.projectDatasetNames.add(name);
+
+      String organismAbbrev = props.get("organismAbbrev");
+      if (organismAbbrev == null) continue;
+      String organism = projectName + ":" + organismAbbrev;
+      index.organismDatasetNames.computeIfAbsent(organism, o -> new ArrayList<String>()).add(name);
+      Map<String, String> organismProps = _globalProps.get(organism + RSRC_SUFFIX);
+      if (organismProps != null) index.organismProperties.put(name, organismProps);
+    }
+    return index;
+  }
+}
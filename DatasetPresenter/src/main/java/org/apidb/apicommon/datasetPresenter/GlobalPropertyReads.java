@@ -0,0 +1,130 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Records what an injector reads, other than its own properties, while its
+ * templates are injected, so InjectorOutputCache can tell when a cached
+ * output is stale.
+ *
+ * Reads are recorded on the thread running the injector (injectors run on one
+ * thread, which runs nothing else meanwhile; see DatasetInjectorSet and
+ * DatasetInjector.injectTemplates()), as strings naming:
+ * <ul>
+ * <li>a global dataset: DATASET and its name. It is recorded whether or not
+ * the dataset exists.</li>
+ * <li>an experiment's samples (see ExperimentSampleIndex): EXPERIMENT and its
+ * key</li>
+ * <li>a template's text: TEMPLATE and its name, or ALL_TEMPLATES</li>
+ * <li>ALL the global dataset properties, for lookups across datasets</li>
+ * </ul>
+ * Nothing is recorded on threads that aren't recording.
+ */
+class GlobalPropertyReads {
+
+  static final String DATASET = "dataset:";
+  static final String EXPERIMENT = "experiment:";
+  static final String TEMPLATE = "template:";
+  static final String ALL_TEMPLATES = "templates";
+  static final String ALL = "all";
+
+  private static final ThreadLocal<Set<String>> READS = new ThreadLocal<Set<String>>();
+
+  /**
+   * A view of the global dataset properties that records the datasets got
+   * from it, and records ALL if it is iterated.
+   */
+  private static class RecordingMap extends AbstractMap<String, Map<String, String>> {
+    private final Map<String, Map<String, String>> _map;
+
+    RecordingMap(Map<String, Map<String, String>> map) {
+      _map = map;
+    }
+
+    @Override
+    public Map<String, String> get(Object key) {
+      recordDataset(String.valueOf(key));
+      return _map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      recordDataset(String.valueOf(key));
+      return _map.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Map<String, String>>> entrySet() {
+      recordAll();
+      return _map.entrySet();
+    }
+  }
+
+  /**
+   * @return a view of the (read only) map that records reads
+   */
+  static Map<String, Map<String, String>> getRecordingView(Map<String, Map<String, String>> globalProps) {
+    return new RecordingMap(globalProps);
+  }
+
+  /**
+   * Start recording on this thread.
+   *
+   * @return the recording this one replaces, if any, to be given to stop()
+   */
+  static Set<String> start() {
+    Set<String> outer = READS.get();
+    READS.set(new TreeSet<String>());
+    return outer;
+  }
+
+  /**
+   * Stop recording on this thread, and go back to the recording replaced by
+   * start(), if any. What was read is also a read of that recording.
+   *
+   * @return the reads recorded since start(), sorted
+   */
+  static Set<String> stop(Set<String> outer) {
+    Set<String> reads = READS.get();
+    if (outer == null) {
+      READS.remove();
+    }
+    else {
+      outer.addAll(reads);
+      READS.set(outer);
+    }
+    return reads;
+  }
+
+  static boolean isRecording() {
+    return READS.get() != null;
+  }
+
+  static void recordDataset(String datasetName) {
+    record(DATASET + datasetName);
+  }
+
+  static void recordExperiment(String experimentKey) {
+    record(EXPERIMENT + experimentKey);
+  }
+
+  static void recordTemplate(String templateName) {
+    record(TEMPLATE + templateName);
+  }
+
+  static void recordAllTemplates() {
+    record(ALL_TEMPLATES);
+  }
+
+  static void recordAll() {
+    record(ALL);
+  }
+
+  private static void record(String read) {
+    Set<String> reads = READS.get();
+    if (reads != null) reads.add(read);
+  }
+}
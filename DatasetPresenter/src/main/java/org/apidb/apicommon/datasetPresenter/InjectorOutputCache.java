@@ -0,0 +1,388 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A cache, on disk and kept across runs, of the TemplateInstances each
+ * DatasetInjector injects, so that injectors whose inputs haven't changed
+ * since a previous run are replayed rather than run (templatesInjector
+ * -injectorCacheDir).
+ *
+ * An injector's output is filed under a digest of:
+ * <ul>
+ * <li>the cache's VERSION and the injector's class name</li>
+ * <li>the bytecode of its class and superclasses, of the classes that
+ * resolve global lookups for it, and of the helpers every injector uses
+ * (templates, property declarations, discovery)</li>
+ * <li>its presenter's dataset name, primary contact and property values</li>
+ * <li>the same, for the injectors a DiscoverableDatasetInjector discovered</li>
+ * </ul>
+ * With the output the file keeps what the injector read from the global
+ * dataset properties and templates (see GlobalPropertyReads) and a digest of
+ * each. The output is replayed only if those digests are the same in this
+ * run; otherwise the injector is run again and the file replaced. The file
+ * also keeps the property values the injectors ended up with, which are put
+ * back when the output is replayed, so aggregates reading a presenter's
+ * property values see the same ones either way.
+ *
+ * Entries are kept in a subdirectory per VERSION. Those not used by a run,
+ * and those of other versions, are deleted at its end (see evictUnused()).
+ *
+ * Injectors whose output depends on anything else (files, the environment,
+ * other presenters) must say so in DatasetInjector.isOutputCacheable().
+ */
+class InjectorOutputCache {
+
+  private static final int VERSION = 2;
+
+  private static final String ABSENT = "-";
+
+  // classes whose code computes what injectors read from the global properties
+  private static final List<Class<?>> LOOKUP_CLASSES = Arrays.<Class<?>>asList(
+      GlobalDatasetPropertyIndex.class, OrganismResolver.class, ExperimentSampleIndex.class,
+      GlobalPropertyReads.class, TemplateInstance.class);
+
+  // classes whose code every injector's output depends on
+  private static final List<Class<?>> HELPER_CLASSES = Arrays.<Class<?>>asList(
+      Template.class, TemplateSet.class, PropertyDeclaration.class, DatasetInjectorConstructor.class,
+      DiscoverableDatasetInjector.class, InjectorOutputCache.class);
+
+  private static final Map<Class<?>, String> BYTECODE_DIGESTS = new ConcurrentHashMap<Class<?>, String>();
+
+  private final File _rootDir;
+  private final File _dir;
+  private final Map<String, Map<String, String>> _globalProps;
+  private final ExperimentSampleIndex _experimentSampleIndex;
+  private final TemplateSet _templateSet;
+
+  // digests of reads, in this run
+  private final Map<String, String> _readDigests = new ConcurrentHashMap<String, String>();
+
+  // the keys looked up in this run
+  private final Set<String> _usedKeys = ConcurrentHashMap.newKeySet();
+
+  private final AtomicInteger _replayed = new AtomicInteger();
+  private final AtomicInteger _run = new AtomicInteger();
+
+  /**
+   * @param globalPropertyIndex the index of the run's global dataset
+   *        properties, or null if there are none
+   */
+  InjectorOutputCache(File dir, GlobalDatasetPropertyIndex globalPropertyIndex, TemplateSet templateSet) {
+    _rootDir = dir;
+    _dir = new File(dir, "v" + VERSION);
+    if (!_dir.isDirectory() && !_dir.mkdirs())
+      throw new UserException("Can't create injector cache dir " + _dir);
+    _globalProps = globalPropertyIndex == null ? Collections.<String, Map<String, String>>emptyMap()
+        : globalPropertyIndex.getGlobalProperties();
+    _experimentSampleIndex = globalPropertyIndex == null ? null
+        : globalPropertyIndex.getExperimentSampleIndex();
+    _templateSet = templateSet;
+  }
+
+  /**
+   * @return the key the injector's output is filed under, or null if it can't
+   *         be cached. Call before the injector is run.
+   */
+  String getKey(DatasetInjector injector) {
+    if (!injector.isOutputCacheable()) return null;
+
+    StringBuilder key = new StringBuilder();
+    append(key, String.valueOf(VERSION));
+    append(key, injector.getClass().getName());
+
+    Set<Class<?>> classes = new TreeSet<Class<?>>((a, b) -> a.getName().compareTo(b.getName()));
+    classes.addAll(LOOKUP_CLASSES);
+    classes.addAll(HELPER_CLASSES);
+    for (DatasetInjector outputInjector : injector.getOutputInjectors()) {
+      for (Class<?> c = outputInjector.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+        classes.add(c);
+      }
+    }
+    for (Class<?> c : classes) {
+      String bytecodeDigest = getBytecodeDigest(c);
+      if (bytecodeDigest == null) return null;
+      append(key, c.getName());
+      append(key, bytecodeDigest);
+    }
+
+    append(key, injector.getDatasetName());
+    Contact contact = injector.getPrimaryContact();
+    append(key, contact == null ? null : contact.getId());
+    append(key, contact == null ? null : contact.getName());
+    for (DatasetInjector outputInjector : injector.getOutputInjectors()) {
+      appendProperties(key, outputInjector.getPropValues());
+    }
+    String digest = DigestUtils.sha1Hex(key.toString().getBytes(StandardCharsets.UTF_8));
+    _usedKeys.add(digest);
+    return digest;
+  }
+
+  /**
+   * @return the output filed under the key, if what it read is unchanged, or
+   *         null. On a hit the injector's property values are set to those it
+   *         had after it was run.
+   */
+  List<TemplateInstance> get(String key, DatasetInjector injector) {
+    File file = getFile(key);
+    if (!file.exists()) return null;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != VERSION) return null;
+      int reads = in.readInt();
+      for (int i = 0; i < reads; i++) {
+        String read = readString(in);
+        if (!readString(in).equals(getReadDigest(read))) return null;
+      }
+      int instances = in.readInt();
+      List<TemplateInstance> templateInstances = new ArrayList<TemplateInstance>(instances);
+      for (int i = 0; i < instances; i++) {
+        String templateName = readString(in);
+        Map<String, String> propValues = readProperties(in);
+        templateInstances.add(new TemplateInstance(templateName, propValues));
+      }
+      List<DatasetInjector> outputInjectors = new ArrayList<DatasetInjector>(injector.getOutputInjectors());
+      if (in.readInt() != outputInjectors.size()) return null;
+      List<Map<String, String>> resultPropValues = new ArrayList<Map<String, String>>();
+      for (int i = 0; i < outputInjectors.size(); i++) {
+        resultPropValues.add(readProperties(in));
+      }
+      for (int i = 0; i < outputInjectors.size(); i++) {
+        outputInjectors.get(i).setResultPropValues(resultPropValues.get(i));
+      }
+      _replayed.incrementAndGet();
+      return templateInstances;
+    } catch (IOException ex) {
+      // an unreadable entry is a miss; it is replaced when the injector is run
+      return null;
+    }
+  }
+
+  /**
+   * File the output of an injector that was run, with what it read and the
+   * property values it ended up with.
+   */
+  void put(String key, DatasetInjector injector, Set<String> reads, List<TemplateInstance> templateInstances) {
+    _run.incrementAndGet();
+    File file = getFile(key);
+    File temp = new File(_dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(VERSION);
+        out.writeInt(reads.size());
+        for (String read : reads) {
+          writeString(out, read);
+          writeString(out, getReadDigest(read));
+        }
+        out.writeInt(templateInstances.size());
+        for (TemplateInstance templateInstance : templateInstances) {
+          writeString(out, templateInstance.getTemplateName());
+          writeProperties(out, templateInstance.getPropValues());
+        }
+        Collection<DatasetInjector> outputInjectors = injector.getOutputInjectors();
+        out.writeInt(outputInjectors.size());
+        for (DatasetInjector outputInjector : outputInjectors) {
+          writeProperties(out, outputInjector.getPropValues());
+        }
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new UserException("Can't write injector cache file " + file, ex);
+    }
+  }
+
+  /**
+   * Delete the entries not looked up in this run, and the cache dirs of other
+   * versions. Call once the injectors have been run.
+   *
+   * @return the number of entries deleted
+   */
+  int evictUnused() {
+    int evicted = 0;
+    File[] files = _dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile() && !_usedKeys.contains(file.getName()) && file.delete()) evicted++;
+      }
+    }
+    File[] versionDirs = _rootDir.listFiles((dir, name) -> name.matches("v\\d+"));
+    if (versionDirs != null) {
+      for (File versionDir : versionDirs) {
+        if (!versionDir.equals(_dir)) evicted += deleteDir(versionDir);
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * @return a summary of this run's use of the cache
+   */
+  String getStats() {
+    return "Injector cache: " + _replayed.get() + " injectors replayed, " + _run.get() + " run";
+  }
+
+  // @return the number of files deleted
+  private static int deleteDir(File dir) {
+    int deleted = 0;
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) deleted += deleteDir(file);
+        else if (file.delete()) deleted++;
+      }
+    }
+    dir.delete();
+    return deleted;
+  }
+
+  private File getFile(String key) {
+    return new File(_dir, key);
+  }
+
+  private String getReadDigest(String read) {
+    return _readDigests.computeIfAbsent(read, this::computeReadDigest);
+  }
+
+  private String computeReadDigest(String read) {
+    StringBuilder source = new StringBuilder();
+    if (read.equals(GlobalPropertyReads.ALL)) {
+      for (String datasetName : new TreeSet<String>(_globalProps.keySet())) {
+        append(source, datasetName);
+        appendProperties(source, _globalProps.get(datasetName));
+      }
+    }
+    else if (read.startsWith(GlobalPropertyReads.DATASET)) {
+      Map<String, String> props = _globalProps.get(read.substring(GlobalPropertyReads.DATASET.length()));
+      if (props == null) return ABSENT;
+      appendProperties(source, props);
+    }
+    else if (read.startsWith(GlobalPropertyReads.EXPERIMENT)) {
+      if (_experimentSampleIndex == null) return ABSENT;
+      for (String datasetName : _experimentSampleIndex.getDatasetNames(
+          read.substring(GlobalPropertyReads.EXPERIMENT.length()))) {
+        append(source, datasetName);
+        appendProperties(source, _globalProps.get(datasetName));
+      }
+    }
+    else if (read.startsWith(GlobalPropertyReads.TEMPLATE)) {
+      Template template = _templateSet == null ? null
+          : _templateSet.nameToTemplate.get(read.substring(GlobalPropertyReads.TEMPLATE.length()));
+      if (template == null) return ABSENT;
+      append(source, template.getTemplateText());
+    }
+    else if (read.equals(GlobalPropertyReads.ALL_TEMPLATES)) {
+      if (_templateSet == null) return ABSENT;
+      for (String templateName : new TreeSet<String>(_templateSet.nameToTemplate.keySet())) {
+        append(source, templateName);
+        append(source, _templateSet.nameToTemplate.get(templateName).getTemplateText());
+      }
+    }
+    else {
+      throw new UnexpectedException("Unknown global read " + read);
+    }
+    return DigestUtils.sha1Hex(source.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return the SHA-1 of the class file, or null if it can't be read
+   */
+  private static String getBytecodeDigest(Class<?> c) {
+    String digest = BYTECODE_DIGESTS.get(c);
+    if (digest != null) return digest;
+
+    String resource = "/" + c.getName().replace('.', '/') + ".class";
+    try (InputStream in = c.getResourceAsStream(resource)) {
+      if (in == null) return null;
+      ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        bytecode.write(buffer, 0, read);
+      }
+      digest = DigestUtils.sha1Hex(bytecode.toByteArray());
+    } catch (IOException ex) {
+      return null;
+    }
+    BYTECODE_DIGESTS.put(c, digest);
+    return digest;
+  }
+
+  // values are length prefixed, so different lists of values can't run together
+  private static void append(StringBuilder source, String value) {
+    if (value == null) source.append("-1:");
+    else source.append(value.length()).append(':').append(value);
+  }
+
+  private static void appendProperties(StringBuilder source, Map<String, String> props) {
+    Map<String, String> sorted = new TreeMap<String, String>(props == null ? new HashMap<String, String>() : props);
+    source.append(sorted.size()).append('{');
+    for (Map.Entry<String, String> prop : sorted.entrySet()) {
+      append(source, prop.getKey());
+      append(source, prop.getValue());
+    }
+    source.append('}');
+  }
+
+  private static void writeProperties(DataOutputStream out, Map<String, String> props) throws IOException {
+    out.writeInt(props.size());
+    for (Map.Entry<String, String> prop : props.entrySet()) {
+      writeString(out, prop.getKey());
+      writeString(out, prop.getValue());
+    }
+  }
+
+  private static Map<String, String> readProperties(DataInputStream in) throws IOException {
+    int props = in.readInt();
+    Map<String, String> propValues = new LinkedHashMap<String, String>();
+    for (int i = 0; i < props; i++) {
+      propValues.put(readString(in), readString(in));
+    }
+    return propValues;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
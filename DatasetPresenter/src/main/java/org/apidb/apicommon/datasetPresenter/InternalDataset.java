@@ -17,6 +17,16 @@ public class InternalDataset {
     _namePattern = pattern;
   }
 
+  /**
+   * @return a copy without the names matched in a database
+   */
+  InternalDataset copy() {
+    InternalDataset copy = new InternalDataset();
+    copy.setName(_name);
+    copy.setDatasetNamePattern(_namePattern);
+    return copy;
+  }
+
   String getName() {
     return _name;
   }
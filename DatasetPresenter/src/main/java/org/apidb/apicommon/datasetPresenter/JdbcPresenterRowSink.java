@@ -0,0 +1,415 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes DatasetPresenter rows to database tables over JDBC. Inserts are
+ * batched per table (BATCH_SIZE rows per round trip) with explicit ids from a
+ * BlockIdAllocator. The connection is switched to manual commit; rows become
+ * visible when the loader commits.
+ *
+ * In the normalized layout (see PresenterTable), a shared row is inserted if
+ * its key is not in the table yet, and updated if its values changed (eg, an
+ * edited contact). The rows already there are read once per table, when the
+ * first of its rows arrives. Shared rows are not deleted with a presenter;
+ * another presenter may still map to them. Diff and resumed loads delete
+ * those no presenter maps to any more at the end (deleteUnmappedSharedRows).
+ *
+ * The sink does not own the connection and does not close it.
+ */
+class JdbcPresenterRowSink implements PresenterRowSink {
+
+  private static final Logger LOG = Logger.getLogger(JdbcPresenterRowSink.class);
+
+  static final int BATCH_SIZE = 500;
+
+  // CLOB values up to this many bytes are bound with setString, which the
+  // Oracle drivers batch like any other bind; longer ones need a stream bind
+  static final int MAX_STRING_BIND_BYTES = 32766;
+
+  private final Connection _connection;
+  private final String _schema;
+  private final String _suffix;
+  private final String _description;
+  private final boolean _normalized;
+  private final List<PresenterTable> _tables;
+
+  private Map<PresenterTable, PreparedStatement> _insertStmts;
+  private Map<PresenterTable, PreparedStatement> _deleteStmts;
+  private Map<PresenterTable, PreparedStatement> _updateStmts;
+  private final BlockIdAllocator _idAllocator;
+  private LoaderMetrics _metrics = new LoaderMetrics(null);
+
+  // rows added to each insert statement's batch but not yet executed
+  private final Map<PresenterTable, List<Object[]>> _pendingRows = new EnumMap<PresenterTable, List<Object[]>>(PresenterTable.class);
+
+  // from key to row digest, for the rows in each shared table; read when
+  // first needed
+  private final Map<PresenterTable, Map<String, String>> _sharedRows = new EnumMap<PresenterTable, Map<String, String>>(PresenterTable.class);
+
+  /**
+   * @param normalized write the normalized layout (see PresenterTable)
+   */
+  JdbcPresenterRowSink(Connection connection, String schema, String suffix,
+      String description, boolean normalized) {
+    _connection = connection;
+    _schema = schema;
+    _suffix = suffix;
+    _description = description;
+    _normalized = normalized;
+    _tables = PresenterTable.getTables(normalized);
+    _idAllocator = new BlockIdAllocator(connection, schema, suffix);
+    for (PresenterTable table : _tables) {
+      _pendingRows.put(table, new ArrayList<Object[]>());
+    }
+    try {
+      _connection.setAutoCommit(false);
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  protected Connection getConnection() {
+    return _connection;
+  }
+
+  protected String getSchema() {
+    return _schema;
+  }
+
+  protected String getSuffix() {
+    return _suffix;
+  }
+
+  protected boolean isNormalized() {
+    return _normalized;
+  }
+
+  @Override
+  public String getDescription() {
+    return _description;
+  }
+
+  @Override
+  public Map<String, String> getLoadedContentDigests() {
+    return getLoadedDigests("content_sha1_digest");
+  }
+
+  @Override
+  public Map<String, String> getLoadedInputDigests() {
+    return getLoadedDigests("input_sha1_digest");
+  }
+
+  private Map<String, String> getLoadedDigests(String digestColumn) {
+    Map<String, String> digests = new HashMap<String, String>();
+    String sql = "select dataset_presenter_id, " + digestColumn + " from "
+        + PresenterTable.PRESENTER.getTableName(_schema, _suffix);
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      try {
+        stmt = _connection.createStatement();
+        rs = stmt.executeQuery(sql);
+        while (rs.next()) {
+          digests.put(rs.getString(1), rs.getString(2));
+        }
+      } finally {
+        if (rs != null)
+          rs.close();
+        if (stmt != null)
+          stmt.close();
+      }
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+    return digests;
+  }
+
+  @Override
+  public void setMetrics(LoaderMetrics metrics) {
+    _metrics = metrics;
+  }
+
+  @Override
+  public void write(PresenterRows rows) {
+    try {
+      if (_insertStmts == null)
+        _insertStmts = prepareStmts(true);
+      for (PresenterTable table : _tables) {
+        PreparedStatement stmt = _insertStmts.get(table);
+        List<Object[]> pending = _pendingRows.get(table);
+        for (Object[] row : rows.getRows(table)) {
+          if (table.isShared()) {
+            String rowDigest = getSharedRowDigest(row);
+            String loadedDigest = getSharedRows(table).put((String) row[0], rowDigest);
+            if (rowDigest.equals(loadedDigest))
+              continue;
+            if (loadedDigest != null) {
+              updateSharedRow(table, row);
+              continue;
+            }
+          }
+          int offset = 0;
+          if (table.getIdColumn() != null) {
+            stmt.setLong(1, _idAllocator.nextId(table));
+            offset = 1;
+          }
+          bindRow(stmt, table, row, offset);
+          stmt.addBatch();
+          pending.add(row);
+          _metrics.addRow(table, row);
+          if (pending.size() >= BATCH_SIZE)
+            executeBatch(table);
+        }
+      }
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  private Map<String, String> getSharedRows(PresenterTable table) throws SQLException {
+    Map<String, String> sharedRows = _sharedRows.get(table);
+    if (sharedRows == null) {
+      sharedRows = new HashMap<String, String>();
+      PresenterTable.Column[] columns = table.getColumns();
+      StringBuilder sql = new StringBuilder("select ");
+      for (int i = 0; i < columns.length; i++) {
+        if (i > 0) sql.append(", ");
+        sql.append(columns[i].getName());
+      }
+      sql.append(" from ").append(table.getTableName(_schema, _suffix));
+      try (Statement stmt = _connection.createStatement();
+           ResultSet rs = stmt.executeQuery(sql.toString())) {
+        while (rs.next()) {
+          Object[] row = new Object[columns.length];
+          for (int i = 0; i < columns.length; i++) {
+            row[i] = rs.getString(i + 1);
+          }
+          sharedRows.put((String) row[0], getSharedRowDigest(row));
+        }
+      }
+      _sharedRows.put(table, sharedRows);
+    }
+    return sharedRows;
+  }
+
+  // shared tables' columns are all strings; the database stores empty ones
+  // as null
+  private static String getSharedRowDigest(Object[] row) {
+    Object[] values = new Object[row.length];
+    for (int i = 0; i < row.length; i++) {
+      values[i] = row[i] == null || "".equals(row[i]) ? null : row[i].toString();
+    }
+    return PresenterRows.getRowDigest(values);
+  }
+
+  /**
+   * Update a shared row whose values changed since it was loaded. Rare (an
+   * edited contact), so not batched; the table's pending inserts go first.
+   */
+  private void updateSharedRow(PresenterTable table, Object[] row) throws SQLException {
+    if (!_pendingRows.get(table).isEmpty())
+      executeBatch(table);
+    if (_updateStmts == null)
+      _updateStmts = new EnumMap<PresenterTable, PreparedStatement>(PresenterTable.class);
+    PreparedStatement stmt = _updateStmts.get(table);
+    if (stmt == null) {
+      stmt = _connection.prepareStatement(table.getUpdateSql(_schema, _suffix));
+      _updateStmts.put(table, stmt);
+    }
+    // the key is bound last, after the values it sets
+    Object[] values = new Object[row.length];
+    System.arraycopy(row, 1, values, 0, row.length - 1);
+    values[row.length - 1] = row[0];
+    for (int i = 0; i < values.length; i++) {
+      stmt.setString(i + 1, values[i] == null ? null : values[i].toString());
+    }
+    long start = System.nanoTime();
+    stmt.executeUpdate();
+    _metrics.addExecute(table, 1, System.nanoTime() - start);
+  }
+
+  @Override
+  public void deleteUnmappedSharedRows() {
+    try {
+      flush();
+      try (Statement stmt = _connection.createStatement()) {
+        for (PresenterTable table : _tables) {
+          if (!table.isShared()) continue;
+          long start = System.nanoTime();
+          stmt.executeUpdate(table.getDeleteUnmappedSql(_schema, _suffix));
+          _metrics.addExecute(table, 0, System.nanoTime() - start);
+        }
+      }
+      // read again if needed
+      _sharedRows.clear();
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  /**
+   * Send all batched inserts to the database.
+   */
+  void flush() throws SQLException {
+    for (PresenterTable table : _tables) {
+      if (!_pendingRows.get(table).isEmpty())
+        executeBatch(table);
+    }
+  }
+
+  private void executeBatch(PresenterTable table) throws SQLException {
+    List<Object[]> pending = _pendingRows.get(table);
+    long start = System.nanoTime();
+    try {
+      _insertStmts.get(table).executeBatch();
+      _metrics.addExecute(table, 1, System.nanoTime() - start);
+    } catch (BatchUpdateException e) {
+      // drivers that stop at the first failure report the rows before it
+      int failed = e.getUpdateCounts() == null ? -1 : e.getUpdateCounts().length;
+      LOG.error("*****Error Loading " + table.getBaseName() + "*****");
+      if (failed >= 0 && failed < pending.size())
+        LOG.error("Row: " + Arrays.toString(pending.get(failed)) + NL, e);
+      else
+        LOG.error("Batch of " + pending.size() + " rows" + NL, e);
+      throw(e);
+    } finally {
+      pending.clear();
+    }
+  }
+
+  @Override
+  public void delete(String datasetPresenterId) {
+    try {
+      flush();
+      if (_deleteStmts == null)
+        _deleteStmts = prepareStmts(false);
+      for (PresenterTable table : _deleteStmts.keySet()) {
+        PreparedStatement stmt = _deleteStmts.get(table);
+        stmt.setString(1, datasetPresenterId);
+        long start = System.nanoTime();
+        stmt.execute();
+        _metrics.addExecute(table, 0, System.nanoTime() - start);
+      }
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  @Override
+  public void commit() {
+    try {
+      flush();
+      _connection.commit();
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  @Override
+  public void rollback() {
+    for (List<Object[]> pending : _pendingRows.values()) {
+      pending.clear();
+    }
+    // shared rows written since the last commit are gone too
+    _sharedRows.clear();
+    try {
+      _connection.rollback();
+    } catch (SQLException e) {
+      LOG.error("Could not roll back DatasetPresenter load", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    closeStmts(_insertStmts);
+    closeStmts(_deleteStmts);
+    closeStmts(_updateStmts);
+    try {
+      _idAllocator.close();
+    } catch (SQLException e) {
+      LOG.warn("Could not close sequence queries", e);
+    }
+  }
+
+  private Map<PresenterTable, PreparedStatement> prepareStmts(boolean insert)
+      throws SQLException {
+    Map<PresenterTable, PreparedStatement> stmts = new EnumMap<PresenterTable, PreparedStatement>(PresenterTable.class);
+    for (PresenterTable table : _tables) {
+      if (!insert && table.isShared()) continue;
+      String sql = insert ? table.getInsertSql(_schema, _suffix)
+          : table.getDeleteSql(_schema, _suffix);
+      stmts.put(table, _connection.prepareStatement(sql));
+    }
+    return stmts;
+  }
+
+  private static void closeStmts(Map<PresenterTable, PreparedStatement> stmts) {
+    if (stmts == null) return;
+    for (PreparedStatement stmt : stmts.values()) {
+      try {
+        stmt.close();
+      } catch (SQLException e) {
+        LOG.warn("Could not close statement", e);
+      }
+    }
+  }
+
+  /**
+   * Bind a row's values to the statement, starting after the first
+   * <code>offset</code> parameters.
+   */
+  static void bindRow(PreparedStatement stmt, PresenterTable table,
+      Object[] row, int offset) throws SQLException {
+    PresenterTable.Column[] columns = table.getColumns();
+    for (int i = 0; i < columns.length; i++) {
+      int pos = offset + i + 1;
+      Object value = row[i];
+      switch (columns[i].getType()) {
+        case BOOLEAN:
+          if (value == null) stmt.setNull(pos, Types.BOOLEAN);
+          else stmt.setBoolean(pos, (Boolean) value);
+          break;
+        case INTEGER:
+          if (value == null) stmt.setNull(pos, Types.INTEGER);
+          else stmt.setInt(pos, (Integer) value);
+          break;
+        case FLOAT:
+          if (value == null) stmt.setNull(pos, Types.FLOAT);
+          else stmt.setFloat(pos, (Float) value);
+          break;
+        case CLOB:
+          String text = (String) value;
+          if (fitsStringBind(text)) stmt.setString(pos, text);
+          else stmt.setCharacterStream(pos, new StringReader(text), text.length());
+          break;
+        default:
+          stmt.setString(pos, (String) value);
+      }
+    }
+  }
+
+  private static boolean fitsStringBind(String text) {
+    // most values are short enough that no char can take them past the limit
+    return text == null || text.length() * 3 <= MAX_STRING_BIND_BYTES
+        || text.getBytes(StandardCharsets.UTF_8).length <= MAX_STRING_BIND_BYTES;
+  }
+}
@@ -0,0 +1,237 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Counters and timings of one DatasetPresenter load:
+ * <ul>
+ * <li>per table: rows, batches, bytes bound (approximated as one byte per
+ * char of text) and time spent executing statements (or writing files)</li>
+ * <li>per phase (schema install, Datasource sync, load, constraint drop):
+ * elapsed time</li>
+ * <li>the slowest presenters to build and write</li>
+ * </ul>
+ *
+ * Written as a JSON report at the end of a run (presenterWriteToDb
+ * -metricsFile), and optionally visible over JMX while it runs (-jmx).
+ * Updated by the loading thread and read by JMX threads, so all access is
+ * synchronized.
+ */
+class LoaderMetrics implements LoaderMetricsMBean {
+
+  static final int SLOWEST_PRESENTERS = 20;
+
+  private static class TableCounters {
+    long rows;
+    long batches;
+    long bytes;
+    long executeNanos;
+  }
+
+  private static class PresenterTiming {
+    final String id;
+    final String name;
+    final long millis;
+
+    PresenterTiming(String id, String name, long millis) {
+      this.id = id;
+      this.name = name;
+      this.millis = millis;
+    }
+  }
+
+  private static final Comparator<PresenterTiming> BY_MILLIS = Comparator.comparingLong(t -> t.millis);
+
+  private final String _instance;
+  private final Map<PresenterTable, TableCounters> _tables = new EnumMap<PresenterTable, TableCounters>(PresenterTable.class);
+  private final Map<String, Long> _phaseMillis = new LinkedHashMap<String, Long>();
+
+  // the fastest of the slowest on top, to be pushed out by a slower one
+  private final PriorityQueue<PresenterTiming> _slowest = new PriorityQueue<PresenterTiming>(BY_MILLIS);
+  private long _presentersLoaded;
+  private String _currentPhase;
+
+  LoaderMetrics(String instance) {
+    _instance = instance;
+    for (PresenterTable table : PresenterTable.values()) {
+      _tables.put(table, new TableCounters());
+    }
+  }
+
+  /**
+   * @return the start time to pass to endPhase()
+   */
+  synchronized long startPhase(String phase) {
+    _currentPhase = phase;
+    return System.currentTimeMillis();
+  }
+
+  synchronized void endPhase(String phase, long start) {
+    long millis = System.currentTimeMillis() - start;
+    Long earlier = _phaseMillis.get(phase);
+    _phaseMillis.put(phase, earlier == null ? millis : earlier + millis);
+    _currentPhase = null;
+  }
+
+  synchronized void addRow(PresenterTable table, Object[] row) {
+    TableCounters counters = _tables.get(table);
+    counters.rows++;
+    counters.bytes += getBoundBytes(row);
+  }
+
+  synchronized void addExecute(PresenterTable table, int batches, long nanos) {
+    TableCounters counters = _tables.get(table);
+    counters.batches += batches;
+    counters.executeNanos += nanos;
+  }
+
+  synchronized void addPresenter(String id, String name, long millis) {
+    _presentersLoaded++;
+    if (_slowest.size() < SLOWEST_PRESENTERS) {
+      _slowest.add(new PresenterTiming(id, name, millis));
+    }
+    else if (millis > _slowest.peek().millis) {
+      _slowest.poll();
+      _slowest.add(new PresenterTiming(id, name, millis));
+    }
+  }
+
+  static long getBoundBytes(Object[] row) {
+    long bytes = 0;
+    for (Object value : row) {
+      if (value instanceof String) bytes += ((String) value).length();
+      else if (value instanceof Boolean) bytes += 1;
+      else if (value != null) bytes += 8;
+    }
+    return bytes;
+  }
+
+  synchronized long getRows(PresenterTable table) {
+    return _tables.get(table).rows;
+  }
+
+  @Override
+  public synchronized String getCurrentPhase() {
+    return _currentPhase;
+  }
+
+  @Override
+  public synchronized long getPresentersLoaded() {
+    return _presentersLoaded;
+  }
+
+  @Override
+  public synchronized long getTotalRows() {
+    long rows = 0;
+    for (TableCounters counters : _tables.values()) {
+      rows += counters.rows;
+    }
+    return rows;
+  }
+
+  @Override
+  public synchronized Map<String, Long> getRowsByTable() {
+    Map<String, Long> rows = new LinkedHashMap<String, Long>();
+    for (PresenterTable table : PresenterTable.values()) {
+      rows.put(table.getBaseName(), _tables.get(table).rows);
+    }
+    return rows;
+  }
+
+  @Override
+  public synchronized Map<String, Long> getExecuteMillisByTable() {
+    Map<String, Long> millis = new LinkedHashMap<String, Long>();
+    for (PresenterTable table : PresenterTable.values()) {
+      millis.put(table.getBaseName(), _tables.get(table).executeNanos / 1000000);
+    }
+    return millis;
+  }
+
+  @Override
+  public synchronized Map<String, Long> getPhaseMillis() {
+    return new LinkedHashMap<String, Long>(_phaseMillis);
+  }
+
+  @Override
+  public String getReportJson() {
+    return toJson().toString(2);
+  }
+
+  synchronized JSONObject toJson() {
+    JSONObject tables = new JSONObject();
+    for (PresenterTable table : PresenterTable.values()) {
+      TableCounters counters = _tables.get(table);
+      tables.put(table.getBaseName(), new JSONObject()
+          .put("rows", counters.rows)
+          .put("batches", counters.batches)
+          .put("bytesBound", counters.bytes)
+          .put("executeMillis", counters.executeNanos / 1000000));
+    }
+
+    JSONObject phases = new JSONObject();
+    for (Map.Entry<String, Long> phase : _phaseMillis.entrySet()) {
+      phases.put(phase.getKey(), phase.getValue());
+    }
+
+    List<PresenterTiming> slowest = new ArrayList<PresenterTiming>(_slowest);
+    Collections.sort(slowest, BY_MILLIS.reversed());
+    JSONArray presenters = new JSONArray();
+    for (PresenterTiming timing : slowest) {
+      presenters.put(new JSONObject()
+          .put("id", timing.id)
+          .put("name", timing.name)
+          .put("millis", timing.millis));
+    }
+
+    return new JSONObject()
+        .put("instance", _instance == null ? JSONObject.NULL : _instance)
+        .put("presentersLoaded", _presentersLoaded)
+        .put("phaseMillis", phases)
+        .put("tables", tables)
+        .put("slowestPresenters", presenters);
+  }
+
+  void writeJson(String fileName) {
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8)) {
+      writer.write(getReportJson());
+      writer.write(System.lineSeparator());
+    } catch (IOException e) {
+      throw new UserException("Can't write metrics file " + fileName, e);
+    }
+  }
+
+  /**
+   * Expose these metrics in the platform MBean server, under
+   * org.apidb.apicommon.datasetPresenter:type=LoaderMetrics,instance=...
+   */
+  void registerMBean() {
+    try {
+      ObjectName name = new ObjectName("org.apidb.apicommon.datasetPresenter:type=LoaderMetrics,instance="
+          + ObjectName.quote(String.valueOf(_instance)));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          new StandardMBean(this, LoaderMetricsMBean.class), name);
+    } catch (JMException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+}
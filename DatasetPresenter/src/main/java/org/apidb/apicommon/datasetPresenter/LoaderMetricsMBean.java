@@ -0,0 +1,23 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a DatasetPresenter load's LoaderMetrics.
+ */
+public interface LoaderMetricsMBean {
+
+  String getCurrentPhase();
+
+  long getPresentersLoaded();
+
+  long getTotalRows();
+
+  Map<String, Long> getRowsByTable();
+
+  Map<String, Long> getExecuteMillisByTable();
+
+  Map<String, Long> getPhaseMillis();
+
+  String getReportJson();
+}
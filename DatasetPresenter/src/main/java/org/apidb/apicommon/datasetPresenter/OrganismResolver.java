@@ -0,0 +1,169 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds the organism a dataset belongs to from its name, for
+ * DatasetInjector.setOrganismAbbrevFromDatasetName() and friends.
+ *
+ * The organism is named by the shortest prefix of the dataset name, in whole
+ * "_" separated words and leaving at least the last word out, for which the
+ * global dataset properties have a "projectName:prefix_RSRC" organism dataset.
+ * Those keys are put in a trie of words, per project, the first time a name is
+ * resolved, and the organism's (abbrev, display name, name for files) are
+ * computed once per project and prefix, so they are shared by all the
+ * injectors of the run. Names with no organism prefix resolve to the whole
+ * name.
+ *
+ * There is one resolver per GlobalDatasetPropertyIndex, so it isn't rebuilt
+ * per injector. Resolvers are thread-safe; the map must not change once names
+ * are being resolved.
+ */
+class OrganismResolver {
+
+  private static final Logger LOG = Logger.getLogger(OrganismResolver.class);
+
+  private static final String RSRC_SUFFIX = "_RSRC";
+
+  private static final Organism NO_ORGANISM = new Organism("", "", "");
+
+  static class Organism {
+    private final String _abbrev;
+    private final String _abbrevDisplay;
+    private final String _nameForFiles;
+
+    private Organism(String abbrev, String abbrevDisplay, String nameForFiles) {
+      _abbrev = abbrev;
+      _abbrevDisplay = abbrevDisplay;
+      _nameForFiles = nameForFiles;
+    }
+
+    String getAbbrev() {
+      return _abbrev;
+    }
+
+    String getAbbrevDisplay() {
+      return _abbrevDisplay;
+    }
+
+    String getNameForFiles() {
+      return _nameForFiles;
+    }
+  }
+
+  // a word of an organism prefix; marked if the words to here are a prefix
+  private static class Node {
+    final Map<String, Node> children = new HashMap<String, Node>();
+    boolean isOrganism;
+  }
+
+  // for injectors given no global dataset properties
+  static final OrganismResolver NO_PROPERTIES = new OrganismResolver(null);
+
+  private final Map<String, Map<String, String>> _globalProps;
+
+  // from project to the root of its organism prefixes, built on first use
+  private volatile Map<String, Node> _tries;
+
+  // from "projectName:prefix" to the organism
+  private final Map<String, Organism> _organisms = new ConcurrentHashMap<String, Organism>();
+
+  OrganismResolver(Map<String, Map<String, String>> globalProps) {
+    _globalProps = globalProps;
+  }
+
+  /**
+   * @return the organism of the dataset in the project. If the name is empty
+   *         or begins with "_", each of its values is the empty string
+   */
+  Organism resolve(String projectName, String datasetName) {
+    String[] words = datasetName.split("_");
+    if (words.length == 0 || words[0].isEmpty()) return NO_ORGANISM;
+
+    if (words.length > 1) {
+      recordProbes(projectName, words);
+      if (_globalProps == null) {
+        LOG.error("Unable to get organism of dataset " + datasetName + ": there are no global dataset properties");
+        return NO_ORGANISM;
+      }
+      Node node = getTries().get(String.valueOf(projectName));
+      StringBuilder prefix = new StringBuilder();
+      for (int i = 0; i < words.length - 1 && node != null; i++) {
+        node = node.children.get(words[i]);
+        if (i > 0) prefix.append('_');
+        prefix.append(words[i]);
+        if (node != null && node.isOrganism)
+          return _organisms.computeIfAbsent(projectName + ":" + prefix,
+              key -> newOrganism(key, prefix.toString()));
+      }
+    }
+    String name = String.join("_", words);
+    return new Organism(name, name, name);
+  }
+
+  // the resolution depends on each prefix's organism dataset, or its absence
+  private void recordProbes(String projectName, String[] words) {
+    if (!GlobalPropertyReads.isRecording()) return;
+    StringBuilder prefix = new StringBuilder(projectName + ":");
+    for (int i = 0; i < words.length - 1; i++) {
+      if (i > 0) prefix.append('_');
+      prefix.append(words[i]);
+      String key = prefix + RSRC_SUFFIX;
+      GlobalPropertyReads.recordDataset(key);
+      if (_globalProps != null && _globalProps.containsKey(key)) return;
+    }
+  }
+
+  private Organism newOrganism(String key, String abbrev) {
+    Map<String, String> orgProps = _globalProps.get(key + RSRC_SUFFIX);
+    return new Organism(abbrev, getAbbrevDisplay(key, orgProps), orgProps.get("organismNameForFiles"));
+  }
+
+  /**
+   * @return the organism's full name with the genus abbreviated (eg,
+   *         "P. falciparum 3D7"), or the empty string if it has no full name
+   */
+  private static String getAbbrevDisplay(String key, Map<String, String> orgProps) {
+    String fullName = orgProps.get("organismFullName");
+    String[] orgName = fullName == null ? null : fullName.split(" ");
+    if (orgName == null || orgName.length == 0 || orgName[0].isEmpty()) {
+      LOG.error("Unable to get organism abbrev display: organism " + key + " has no organismFullName");
+      return "";
+    }
+    StringBuilder display = new StringBuilder().append(orgName[0].charAt(0)).append('.');
+    for (int j = 1; j < orgName.length; j++) {
+      display.append(' ').append(orgName[j]);
+    }
+    return display.toString();
+  }
+
+  private Map<String, Node> getTries() {
+    Map<String, Node> tries = _tries;
+    if (tries == null) {
+      synchronized (this) {
+        if (_tries == null) _tries = buildTries();
+        tries = _tries;
+      }
+    }
+    return tries;
+  }
+
+  private Map<String, Node> buildTries() {
+    Map<String, Node> tries = new HashMap<String, Node>();
+    for (String key : _globalProps.keySet()) {
+      int colon = key.indexOf(':');
+      if (colon < 0 || !key.endsWith(RSRC_SUFFIX) || key.length() - RSRC_SUFFIX.length() <= colon) continue;
+      Node node = tries.computeIfAbsent(key.substring(0, colon), project -> new Node());
+      String prefix = key.substring(colon + 1, key.length() - RSRC_SUFFIX.length());
+      for (String word : prefix.split("_", -1)) {
+        node = node.children.computeIfAbsent(word, w -> new Node());
+      }
+      node.isOrganism = true;
+    }
+    return tries;
+  }
+}
@@ -0,0 +1,73 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.Map;
+
+/**
+ * A destination for the rows DatasetPresenterSetLoader produces. The loader
+ * traverses the DatasetPresenterSet the same way regardless of the sink; the
+ * sink decides how rows are stored (a live database, bulk loader files, an
+ * embedded database).
+ *
+ * Sinks report failures as UnexpectedException (or UserException for
+ * unsupported operations).
+ */
+interface PresenterRowSink {
+
+  /**
+   * @return a description of where rows go, for progress messages
+   */
+  String getDescription();
+
+  /**
+   * Read the content digests of the DatasetPresenters already stored in this
+   * sink. Used by diff loads.
+   *
+   * @return map from dataset_presenter_id to content_sha1_digest
+   */
+  Map<String, String> getLoadedContentDigests();
+
+  /**
+   * Read the input digests of the DatasetPresenters already stored in this
+   * sink. Used by resumed loads.
+   *
+   * @return map from dataset_presenter_id to input_sha1_digest
+   */
+  Map<String, String> getLoadedInputDigests();
+
+  /**
+   * Count rows written, and time spent writing them, in these metrics.
+   */
+  void setMetrics(LoaderMetrics metrics);
+
+  /**
+   * Write all rows of one DatasetPresenter.
+   */
+  void write(PresenterRows rows);
+
+  /**
+   * Delete all rows of the DatasetPresenter with this id. Used by diff loads.
+   */
+  void delete(String datasetPresenterId);
+
+  /**
+   * Delete the rows of the normalized layout's shared tables that no
+   * presenter maps to any more. Used by diff and resumed loads, after their
+   * deletes.
+   */
+  void deleteUnmappedSharedRows();
+
+  /**
+   * Make everything written so far durable.
+   */
+  void commit();
+
+  /**
+   * Discard everything written since the last commit, if the sink can.
+   */
+  void rollback();
+
+  /**
+   * Release the sink's resources. Does not commit.
+   */
+  void close();
+}
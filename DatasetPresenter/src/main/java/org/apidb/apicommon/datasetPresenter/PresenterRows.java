@@ -0,0 +1,136 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * The full set of rows a single DatasetPresenter contributes to the
+ * DatasetPresenter tables. Each row holds the values of its table's data
+ * columns (see {@link PresenterTable}), in column order.
+ *
+ * Once all rows are added, {@link #seal()} computes a digest over the whole
+ * row set and stores it in the presenter row's content_sha1_digest column.
+ * Two loads of the same presenter produce the same digest exactly when they
+ * would write the same rows.
+ */
+class PresenterRows {
+
+  private static final byte FIELD_SEP = 0x1F;
+  private static final byte ROW_SEP = 0x1E;
+  private static final byte NULL_MARK = 0x00;
+
+  private final String _presenterId;
+  private final Map<PresenterTable, List<Object[]>> _rows =
+      new EnumMap<PresenterTable, List<Object[]>>(PresenterTable.class);
+  private String _contentDigest;
+
+  PresenterRows(String presenterId) {
+    _presenterId = presenterId;
+    for (PresenterTable table : PresenterTable.values()) {
+      _rows.put(table, new ArrayList<Object[]>());
+    }
+  }
+
+  String getPresenterId() {
+    return _presenterId;
+  }
+
+  void addRow(PresenterTable table, Object... values) {
+    if (_contentDigest != null)
+      throw new UnexpectedException("Rows for " + _presenterId + " are sealed");
+    if (values.length != table.getColumns().length)
+      throw new UnexpectedException("Table " + table.getBaseName() + " expects "
+          + table.getColumns().length + " values but got " + values.length);
+    _rows.get(table).add(values);
+  }
+
+  /**
+   * Set a value of a row already added (eg, one looked up after the rows'
+   * digest was taken; see getDigest()).
+   */
+  void setValue(PresenterTable table, int row, String column, Object value) {
+    if (_contentDigest != null)
+      throw new UnexpectedException("Rows for " + _presenterId + " are sealed");
+    int index = table.getColumnIndex(column);
+    if (index < 0)
+      throw new UnexpectedException("Table " + table.getBaseName() + " has no column " + column);
+    _rows.get(table).get(row)[index] = value;
+  }
+
+  List<Object[]> getRows(PresenterTable table) {
+    return Collections.unmodifiableList(_rows.get(table));
+  }
+
+  int getRowCount() {
+    int count = 0;
+    for (List<Object[]> rows : _rows.values())
+      count += rows.size();
+    return count;
+  }
+
+  /**
+   * Compute the content digest and store it in the presenter row. No rows
+   * may be added afterwards.
+   *
+   * Rows are digested individually and their digests sorted per table, so the
+   * result does not depend on the order in which rows were added (several of
+   * the presenter's collections are hash based).
+   */
+  void seal() {
+    if (_contentDigest != null) return;
+    _contentDigest = getDigest();
+
+    // the digest column is the last one in the presenter table
+    for (Object[] row : _rows.get(PresenterTable.PRESENTER)) {
+      row[row.length - 1] = _contentDigest;
+    }
+  }
+
+  /**
+   * @return the digest of the rows as they are now, computed as seal() does.
+   *         Taken before citations are looked up, it is the presenter's input
+   *         digest.
+   */
+  String getDigest() {
+    MessageDigest digest = DigestUtils.getSha1Digest();
+    for (PresenterTable table : PresenterTable.values()) {
+      digest.update(table.getBaseName().getBytes(StandardCharsets.UTF_8));
+      List<String> rowDigests = new ArrayList<String>();
+      for (Object[] row : _rows.get(table)) {
+        rowDigests.add(getRowDigest(row));
+      }
+      Collections.sort(rowDigests);
+      for (String rowDigest : rowDigests) {
+        digest.update(rowDigest.getBytes(StandardCharsets.UTF_8));
+        digest.update(ROW_SEP);
+      }
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  static String getRowDigest(Object[] row) {
+    MessageDigest digest = DigestUtils.getSha1Digest();
+    for (Object value : row) {
+      if (value == null)
+        digest.update(NULL_MARK);
+      else
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+      digest.update(FIELD_SEP);
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  String getContentDigest() {
+    if (_contentDigest == null)
+      throw new UnexpectedException("Rows for " + _presenterId + " are not sealed");
+    return _contentDigest;
+  }
+}
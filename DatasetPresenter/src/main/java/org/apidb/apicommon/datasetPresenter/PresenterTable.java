@@ -0,0 +1,316 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The tables written by the DatasetPresenterSetLoader (created by the
+ * presenterCreateSchema script). Each table knows its columns, in the order
+ * the loader supplies values for them, so that SQL and row handling can be
+ * derived from one place.
+ *
+ * Most tables have a surrogate key column whose values come from a sequence,
+ * in blocks (see BlockIdAllocator). That column is not part of the data
+ * columns. DatasetPresenter and the shared tables are keyed by their first
+ * data column instead.
+ *
+ * In the normalized layout (presenterWriteToDb -normalized) contacts and
+ * hyperlinks, which many presenters repeat, are written once each to a shared
+ * table, and each presenter gets a thin mapping row per use of one. Views
+ * named like the DatasetContact and DatasetHyperLink tables join the two back
+ * into the tables' usual shape, so readers see no difference.
+ */
+enum PresenterTable {
+
+  PRESENTER("DatasetPresenter", null,
+      col("dataset_presenter_id"), col("dataset_sha1_digest"), col("name"),
+      col("dataset_name_pattern"), col("display_name"),
+      col("short_display_name"), col("short_attribution"),
+      col("summary", ColumnType.CLOB), col("protocol"), col("usage"),
+      col("description", ColumnType.CLOB), col("caveat"),
+      col("acknowledgement"), col("release_policy"), col("display_category"),
+      col("type"), col("subtype"), col("is_species_scope", ColumnType.BOOLEAN),
+      col("build_number_introduced", ColumnType.INTEGER), col("category"),
+      col("input_sha1_digest"), col("content_sha1_digest")),
+
+  PROPERTY("DatasetProperty", "dataset_property_id",
+      col("dataset_presenter_id"), col("property"), col("value")),
+
+  CONTACT("DatasetContact", "dataset_contact_id",
+      col("dataset_presenter_id"), col("is_primary_contact", ColumnType.BOOLEAN),
+      col("name"), col("email"), col("affiliation"), col("address"),
+      col("city"), col("state"), col("zip"), col("country")),
+
+  PUBLICATION("DatasetPublication", "dataset_publication_id",
+      col("dataset_presenter_id"), col("pmid"), col("citation")),
+
+  MODEL_REF("DatasetModelRef", "dataset_model_ref_id",
+      col("dataset_presenter_id"), col("record_type"), col("target_type"),
+      col("target_name")),
+
+  HISTORY("DatasetHistory", "dataset_history_id",
+      col("dataset_presenter_id"), col("build_number", ColumnType.FLOAT),
+      col("genome_source"), col("genome_version"), col("annotation_source"),
+      col("annotation_version"), col("functional_annotation_source"),
+      col("functional_annotation_version"), col("note")),
+
+  LINK("DatasetHyperLink", "dataset_link_id",
+      col("dataset_presenter_id"), col("text"), col("description"),
+      col("url"), col("isPublication")),
+
+  NAME_TAXON("DatasetNameTaxon", "dataset_taxon_id",
+      col("dataset_presenter_id"), col("name"),
+      col("taxon_id", ColumnType.INTEGER)),
+
+  // the normalized layout's replacement for CONTACT; contacts are keyed by
+  // their id in the contacts file
+  CONTACT_SHARED("DatasetContactShared", null,
+      col("contact_id"), col("name"), col("email"), col("affiliation"),
+      col("address"), col("city"), col("state"), col("zip"), col("country")),
+
+  CONTACT_MAP("DatasetContactMap", "dataset_contact_id",
+      col("dataset_presenter_id"), col("contact_id"),
+      col("is_primary_contact", ColumnType.BOOLEAN)),
+
+  // the normalized layout's replacement for LINK; links are keyed by a digest
+  // of their values
+  LINK_SHARED("DatasetHyperLinkShared", null,
+      col("link_id"), col("text"), col("description"), col("url"),
+      col("isPublication")),
+
+  LINK_MAP("DatasetHyperLinkMap", "dataset_link_id",
+      col("dataset_presenter_id"), col("link_id"));
+
+  /**
+   * How a column value is bound to a statement, and the column type used when
+   * the loader creates the table itself (see EmbeddedPresenterRowSink).
+   */
+  enum ColumnType {
+    STRING("varchar2(4000)"),
+    CLOB("clob"),
+    BOOLEAN("number(1)"),
+    INTEGER("number(12)"),
+    FLOAT("number");
+
+    private final String _sqlType;
+
+    private ColumnType(String sqlType) {
+      _sqlType = sqlType;
+    }
+
+    String getSqlType() {
+      return _sqlType;
+    }
+  }
+
+  static class Column {
+    private final String _name;
+    private final ColumnType _type;
+
+    Column(String name, ColumnType type) {
+      _name = name;
+      _type = type;
+    }
+
+    String getName() {
+      return _name;
+    }
+
+    ColumnType getType() {
+      return _type;
+    }
+  }
+
+  private final String _baseName;
+  private final String _idColumn;
+  private final Column[] _columns;
+
+  private PresenterTable(String baseName, String idColumn, Column... columns) {
+    _baseName = baseName;
+    _idColumn = idColumn;
+    _columns = columns;
+  }
+
+  private static Column col(String name) {
+    return new Column(name, ColumnType.STRING);
+  }
+
+  private static Column col(String name, ColumnType type) {
+    return new Column(name, type);
+  }
+
+  String getBaseName() {
+    return _baseName;
+  }
+
+  /**
+   * @return the sequence-filled surrogate key column, or null if the table has
+   *         none
+   */
+  String getIdColumn() {
+    return _idColumn;
+  }
+
+  Column[] getColumns() {
+    return _columns;
+  }
+
+  /**
+   * @return the tables of the plain or of the normalized layout
+   */
+  static List<PresenterTable> getTables(boolean normalized) {
+    List<PresenterTable> tables = new ArrayList<PresenterTable>();
+    for (PresenterTable table : values()) {
+      boolean inLayout = normalized ? table.getMapTable() == null
+          : !table.isShared() && !table.isMap();
+      if (inLayout) tables.add(table);
+    }
+    return tables;
+  }
+
+  /**
+   * @return true if this table holds rows shared by many presenters, written
+   *         once each and never deleted with a presenter
+   */
+  boolean isShared() {
+    return this == CONTACT_SHARED || this == LINK_SHARED;
+  }
+
+  private boolean isMap() {
+    return this == CONTACT_MAP || this == LINK_MAP;
+  }
+
+  /**
+   * @return the mapping table that replaces this one in the normalized
+   *         layout, or null if the layout keeps this table
+   */
+  PresenterTable getMapTable() {
+    switch (this) {
+      case CONTACT: return CONTACT_MAP;
+      case LINK: return LINK_MAP;
+      default: return null;
+    }
+  }
+
+  /**
+   * @return the shared table that, with getMapTable(), replaces this one in
+   *         the normalized layout, or null
+   */
+  PresenterTable getSharedTable() {
+    switch (this) {
+      case CONTACT: return CONTACT_SHARED;
+      case LINK: return LINK_SHARED;
+      default: return null;
+    }
+  }
+
+  String getTableName(String schema, String suffix) {
+    return schema + "." + _baseName + suffix;
+  }
+
+  String getInsertSql(String schema, String suffix) {
+    String table = getTableName(schema, suffix);
+    StringBuilder cols = new StringBuilder();
+    StringBuilder vals = new StringBuilder();
+    if (_idColumn != null) {
+      // ids are bound explicitly; see BlockIdAllocator
+      cols.append(_idColumn).append(", ");
+      vals.append("?, ");
+    }
+    for (int i = 0; i < _columns.length; i++) {
+      if (i > 0) {
+        cols.append(", ");
+        vals.append(", ");
+      }
+      cols.append(_columns[i].getName());
+      vals.append("?");
+    }
+    return "INSERT INTO " + table + " (" + cols + ") VALUES (" + vals + ")";
+  }
+
+  /**
+   * A generic version of the table created by presenterCreateSchema, for
+   * databases other than the tuning schema (eg, an embedded one).  Column
+   * widths are not enforced.
+   */
+  String getCreateTableSql(String schema, String suffix) {
+    String table = getTableName(schema, suffix);
+    StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS " + table + " (");
+    if (_idColumn != null) {
+      sql.append(_idColumn).append(" number(12) primary key, ");
+    }
+    for (int i = 0; i < _columns.length; i++) {
+      if (i > 0) sql.append(", ");
+      sql.append(_columns[i].getName()).append(" ").append(_columns[i].getType().getSqlType());
+      if (_idColumn == null && i == 0) sql.append(" primary key");
+    }
+    return sql.append(")").toString();
+  }
+
+  /**
+   * A view, named like this table, that reads the normalized layout's mapping
+   * and shared tables back into this table's shape. Each column comes from the
+   * mapping table if it has one of that name, and otherwise from the shared
+   * table, joined on the shared table's key.
+   */
+  String getCompatibilityViewSql(String schema, String suffix) {
+    PresenterTable map = getMapTable();
+    PresenterTable shared = getSharedTable();
+    String key = shared._columns[0].getName();
+    StringBuilder sql = new StringBuilder("CREATE OR REPLACE VIEW "
+        + getTableName(schema, suffix) + " AS SELECT m." + _idColumn);
+    for (Column column : _columns) {
+      sql.append(", ").append(map.hasColumn(column.getName()) ? "m." : "s.")
+          .append(column.getName());
+    }
+    return sql.append(" FROM ").append(map.getTableName(schema, suffix)).append(" m, ")
+        .append(shared.getTableName(schema, suffix)).append(" s WHERE m.")
+        .append(key).append(" = s.").append(key).toString();
+  }
+
+  private boolean hasColumn(String name) {
+    return getColumnIndex(name) >= 0;
+  }
+
+  /**
+   * @return the index of the named data column, or -1 if there is none
+   */
+  int getColumnIndex(String name) {
+    for (int i = 0; i < _columns.length; i++) {
+      if (_columns[i].getName().equals(name)) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * For a shared table, an update of a row's values by its key (the first
+   * column), which is bound last.
+   */
+  String getUpdateSql(String schema, String suffix) {
+    StringBuilder sql = new StringBuilder("UPDATE " + getTableName(schema, suffix) + " SET ");
+    for (int i = 1; i < _columns.length; i++) {
+      if (i > 1) sql.append(", ");
+      sql.append(_columns[i].getName()).append(" = ?");
+    }
+    return sql.append(" WHERE ").append(_columns[0].getName()).append(" = ?").toString();
+  }
+
+  /**
+   * For a shared table, a delete of the rows its mapping table no longer
+   * refers to.
+   */
+  String getDeleteUnmappedSql(String schema, String suffix) {
+    PresenterTable map = null;
+    for (PresenterTable table : values()) {
+      if (table.getSharedTable() == this) map = table.getMapTable();
+    }
+    String key = _columns[0].getName();
+    return "DELETE FROM " + getTableName(schema, suffix) + " s WHERE NOT EXISTS (SELECT 1 FROM "
+        + map.getTableName(schema, suffix) + " m WHERE m." + key + " = s." + key + ")";
+  }
+
+  String getDeleteSql(String schema, String suffix) {
+    return "DELETE FROM " + getTableName(schema, suffix)
+        + " WHERE dataset_presenter_id = ?";
+  }
+}
@@ -0,0 +1,205 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Compares loaded DatasetPresenter tables with the rows the presenter model
+ * gives, without reading the rows back (presenterWriteToDb -verify).
+ *
+ * For each table and presenter, the row count and the sum of the rows'
+ * hashes are computed in SQL, one grouped query per table, and in Java from
+ * the presenters' PresenterRows. The sum does not depend on row order; a
+ * presenter whose aggregates differ has a missing, extra or changed row.
+ *
+ * A row's hash is the first 15 hex digits (60 bits) of the SHA-1 of the
+ * concatenated upper case hex SHA-1s of its column values, as Oracle's
+ * standard_hash and rawtohex give them. Column values are rendered the same
+ * on both sides:
+ * <ul>
+ * <li>null (and the empty string, which Oracle stores as null) is chr(0)</li>
+ * <li>text is its UTF-8 bytes (the database charset is assumed to be
+ * AL32UTF8)</li>
+ * <li>booleans are 1 or 0, integers their decimal digits</li>
+ * <li>floats are rounded to thousandths, as an integer count of them</li>
+ * <li>CLOBs, which standard_hash can't read, are represented by their length
+ * in chars</li>
+ * </ul>
+ * Surrogate keys, citations (looked up outside the model) and content digests
+ * (which cover citations) are not compared. Tables replaced by views in the
+ * normalized layout are compared through the views.
+ */
+class PresenterTableVerifier {
+
+  private static final String NULL_VALUE = "\0";
+
+  // hex digits of a row's hash that are summed
+  private static final int HASH_DIGITS = 15;
+
+  private static class Aggregate {
+    long rows;
+    BigInteger hashSum = BigInteger.ZERO;
+
+    void add(long rowHash) {
+      rows++;
+      hashSum = hashSum.add(BigInteger.valueOf(rowHash));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Aggregate)) return false;
+      Aggregate aggregate = (Aggregate) other;
+      return rows == aggregate.rows && hashSum.equals(aggregate.hashSum);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(rows, hashSum);
+    }
+  }
+
+  private final Connection _connection;
+  private final String _schema;
+  private final String _suffix;
+
+  // per table, from dataset_presenter_id to the aggregate of its rows
+  private final Map<PresenterTable, Map<String, Aggregate>> _expected =
+      new EnumMap<PresenterTable, Map<String, Aggregate>>(PresenterTable.class);
+
+  PresenterTableVerifier(Connection connection, String schema, String suffix) {
+    _connection = connection;
+    _schema = schema;
+    _suffix = suffix;
+    for (PresenterTable table : PresenterTable.getTables(false)) {
+      _expected.put(table, new HashMap<String, Aggregate>());
+    }
+  }
+
+  /**
+   * Add a presenter's rows, in the plain layout, to those expected in the
+   * tables.
+   */
+  void addExpected(PresenterRows rows) {
+    for (PresenterTable table : _expected.keySet()) {
+      Aggregate aggregate = new Aggregate();
+      for (Object[] row : rows.getRows(table)) {
+        aggregate.add(getRowHash(table, row));
+      }
+      if (aggregate.rows > 0)
+        _expected.get(table).put(rows.getPresenterId(), aggregate);
+    }
+  }
+
+  /**
+   * @return a description of each table and presenter whose rows differ from
+   *         those expected
+   */
+  List<String> verify() {
+    List<String> mismatches = new ArrayList<String>();
+    for (PresenterTable table : _expected.keySet()) {
+      Map<String, Aggregate> expected = _expected.get(table);
+      Map<String, Aggregate> loaded = queryAggregates(table);
+      TreeSet<String> ids = new TreeSet<String>(expected.keySet());
+      ids.addAll(loaded.keySet());
+      for (String id : ids) {
+        Aggregate want = expected.get(id);
+        Aggregate have = loaded.get(id);
+        if (want == null)
+          mismatches.add(table.getBaseName() + ": " + id + " has " + have.rows + " rows but should have none");
+        else if (have == null)
+          mismatches.add(table.getBaseName() + ": " + id + " has no rows but should have " + want.rows);
+        else if (!want.equals(have))
+          mismatches.add(table.getBaseName() + ": " + id + " has " + have.rows + " rows, expected "
+              + want.rows + (want.rows == have.rows ? ", with different values" : ""));
+      }
+    }
+    return mismatches;
+  }
+
+  private Map<String, Aggregate> queryAggregates(PresenterTable table) {
+    Map<String, Aggregate> aggregates = new HashMap<String, Aggregate>();
+    try (Statement stmt = _connection.createStatement();
+         ResultSet rs = stmt.executeQuery(getAggregateSql(table, _schema, _suffix))) {
+      while (rs.next()) {
+        Aggregate aggregate = new Aggregate();
+        aggregate.rows = rs.getLong(2);
+        aggregate.hashSum = rs.getBigDecimal(3).toBigIntegerExact();
+        aggregates.put(rs.getString(1), aggregate);
+      }
+    } catch (SQLException e) {
+      throw new UnexpectedException(e);
+    }
+    return aggregates;
+  }
+
+  static String getAggregateSql(PresenterTable table, String schema, String suffix) {
+    StringBuilder rowHash = new StringBuilder();
+    PresenterTable.Column[] columns = table.getColumns();
+    for (int i = 0; i < columns.length; i++) {
+      if (!isVerified(table, i)) continue;
+      if (rowHash.length() > 0) rowHash.append(" || ");
+      rowHash.append("rawtohex(standard_hash(").append(getSqlValue(columns[i])).append(", 'SHA1'))");
+    }
+    String hex = "substr(rawtohex(standard_hash(" + rowHash + ", 'SHA1')), 1, " + HASH_DIGITS + ")";
+    String hexFormat = new String(new char[HASH_DIGITS]).replace('\0', 'X');
+    return "select dataset_presenter_id, count(*), sum(to_number(" + hex + ", '" + hexFormat + "'))"
+        + " from " + table.getTableName(schema, suffix) + " group by dataset_presenter_id";
+  }
+
+  private static String getSqlValue(PresenterTable.Column column) {
+    String name = column.getName();
+    switch (column.getType()) {
+      case CLOB: return "nvl(to_char(dbms_lob.getlength(" + name + ")), chr(0))";
+      case BOOLEAN:
+      case INTEGER: return "nvl(to_char(" + name + "), chr(0))";
+      case FLOAT: return "nvl(to_char(round(" + name + " * 1000)), chr(0))";
+      default: return "nvl(" + name + ", chr(0))";
+    }
+  }
+
+  static long getRowHash(PresenterTable table, Object[] row) {
+    StringBuilder columnHashes = new StringBuilder();
+    PresenterTable.Column[] columns = table.getColumns();
+    for (int i = 0; i < columns.length; i++) {
+      if (!isVerified(table, i)) continue;
+      columnHashes.append(DigestUtils.sha1Hex(
+          getValue(columns[i], row[i]).getBytes(StandardCharsets.UTF_8)).toUpperCase());
+    }
+    String hex = DigestUtils.sha1Hex(columnHashes.toString().getBytes(StandardCharsets.UTF_8));
+    return Long.parseLong(hex.substring(0, HASH_DIGITS), 16);
+  }
+
+  private static String getValue(PresenterTable.Column column, Object value) {
+    if (value == null) return NULL_VALUE;
+    switch (column.getType()) {
+      case CLOB:
+        String text = (String) value;
+        return text.isEmpty() ? NULL_VALUE : Integer.toString(text.length());
+      case BOOLEAN: return ((Boolean) value) ? "1" : "0";
+      case INTEGER: return value.toString();
+      case FLOAT: return Long.toString(Math.round(((Float) value) * 1000.0));
+      default:
+        String string = value.toString();
+        return string.isEmpty() ? NULL_VALUE : string;
+    }
+  }
+
+  private static boolean isVerified(PresenterTable table, int column) {
+    String name = table.getColumns()[column].getName();
+    return !(table == PresenterTable.PUBLICATION && name.equals("citation"))
+        && !(table == PresenterTable.PRESENTER && name.equals("content_sha1_digest"));
+  }
+}
@@ -0,0 +1,93 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The properties a DatasetInjector class declares (see
+ * DatasetInjector.getPropertiesDeclaration()), captured once per class.
+ *
+ * The declared property names are interned as small integer ids, shared by
+ * all classes. A presenter's property names become a bitset of ids, once, and
+ * checking that it has all of a candidate class's declared properties, to
+ * discover an injector, is a test of the declared ids' bits. Only declared
+ * names are interned, so the ids are bounded by the injector classes loaded;
+ * other property names are left out of key sets, as no class can need them.
+ *
+ * A class's declaration must be the same for all its instances.
+ */
+class PropertyDeclaration {
+
+  private static final Map<String, Integer> KEY_IDS = new ConcurrentHashMap<String, Integer>();
+
+  private static final Map<Class<? extends DatasetInjector>, PropertyDeclaration> DECLARATIONS =
+      new ConcurrentHashMap<Class<? extends DatasetInjector>, PropertyDeclaration>();
+
+  private final int[] _ids;
+  private final boolean _overridesDiscover;
+
+  private PropertyDeclaration(String[][] declaration, boolean overridesDiscover) {
+    _ids = new int[declaration.length];
+    for (int i = 0; i < declaration.length; i++) {
+      _ids[i] = getKeyId(declaration[i][0]);
+    }
+    _overridesDiscover = overridesDiscover;
+  }
+
+  /**
+   * @return the declaration of the injector's class, capturing it from the
+   *         injector the first time the class is seen
+   */
+  static PropertyDeclaration getDeclaration(DatasetInjector injector) {
+    return DECLARATIONS.computeIfAbsent(injector.getClass(), injectorClass ->
+        new PropertyDeclaration(injector.getPropertiesDeclaration(), overridesDiscover(injectorClass)));
+  }
+
+  /**
+   * @return the ids of the property names declared by the classes whose
+   *         declarations have been captured; others are left out
+   */
+  static BitSet getKeySet(Iterable<String> propertyNames) {
+    BitSet keys = new BitSet(KEY_IDS.size());
+    for (String name : propertyNames) {
+      Integer id = KEY_IDS.get(name);
+      if (id != null) keys.set(id);
+    }
+    return keys;
+  }
+
+  private static int getKeyId(String propertyName) {
+    Integer id = KEY_IDS.get(propertyName);
+    if (id != null) return id;
+    synchronized (KEY_IDS) {
+      return KEY_IDS.computeIfAbsent(propertyName, name -> KEY_IDS.size());
+    }
+  }
+
+  private static boolean overridesDiscover(Class<? extends DatasetInjector> injectorClass) {
+    try {
+      return injectorClass.getMethod("discover", Map.class).getDeclaringClass() != DatasetInjector.class;
+    } catch (NoSuchMethodException ex) {
+      throw new UnexpectedException(ex);
+    }
+  }
+
+  /**
+   * @return whether the class overrides DatasetInjector.discover(Map), so
+   *         discovering it takes more than a check of the declared properties
+   */
+  boolean overridesDiscover() {
+    return _overridesDiscover;
+  }
+
+  /**
+   * @return whether all the declared properties are in the key set
+   */
+  boolean isDeclaredIn(BitSet keys) {
+    for (int id : _ids) {
+      if (!keys.get(id)) return false;
+    }
+    return true;
+  }
+}
@@ -12,7 +12,8 @@ public class Publication {
         return pubmedId;
     }
 
-    public String getCitation() {
+    // synchronized: presenter set copies loading concurrently share publications
+    public synchronized String getCitation() {
         if (pubmedId == null || pubmedId.equals("")) return null;
         if (citation == null) {
             try {
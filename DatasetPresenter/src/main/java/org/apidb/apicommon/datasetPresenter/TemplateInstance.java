@@ -1,5 +1,6 @@
 package org.apidb.apicommon.datasetPresenter;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
@@ -38,6 +39,10 @@ public class TemplateInstance {
     return propValues.get(key);
   }
 
+  Map<String, String> getPropValues() {
+    return Collections.unmodifiableMap(propValues);
+  }
+
   String getPrettyPrintedPropValues(Style style) {
     return FormatUtil.prettyPrint(propValues, style);
   }
@@ -39,6 +39,7 @@ public class TemplatesInjector {
   private TemplateSet templateSet;
   private DatasetInjectorSet datasetInjectorSet;
   private List<DatasetPresenterSet> datasetPresenterSets = new ArrayList<DatasetPresenterSet>();
+  private File injectorCacheDir;
 
   public TemplatesInjector(DatasetPresenterSet datasetPresenterSet,
       TemplateSet templateSet) {
@@ -70,7 +71,7 @@ public class TemplatesInjector {
   public void processDatasetPresenterSet(String project_home, String gus_home) {
 
     initDatasetInjectorSet();
-
+    datasetInjectorSet.setOutputCacheDir(injectorCacheDir);
 
     List<DatasetInjector> datasetInjectors = datasetInjectorSet.getDatasetInjectors();
     for (DatasetInjector datasetInjector : datasetInjectors) {
@@ -146,6 +147,14 @@ public class TemplatesInjector {
 
   }
 
+  /**
+   * Replay the templates of unchanged dataset injectors from a cache in this
+   * dir (see InjectorOutputCache), rather than run them. Null to run them all.
+   */
+  public void setInjectorCacheDir(File injectorCacheDir) {
+    this.injectorCacheDir = injectorCacheDir;
+  }
+
   // ////// static methods //////////////
 
   private static Options declareOptions() {
@@ -170,6 +179,10 @@ public class TemplatesInjector {
         "an optional global presenters XML file", false,
         true);
 
+    CliUtil.addOption(options, "injectorCacheDir",
+        "an optional directory in which to cache the templates each dataset injector injects, to replay them in later runs if its inputs are unchanged",
+        false, true);
+
     return options;
   }
 
@@ -185,7 +198,7 @@ public class TemplatesInjector {
     // parse command line
     Options options = declareOptions();
     String cmdlineSyntax = cmdName
-        + " -templatesDir templates_dir -presentersDir presenters_dir [-globalPresentersFile global_file] -contactsXmlFile contacts_file";
+        + " -templatesDir templates_dir -presentersDir presenters_dir [-globalPresentersFile global_file] -contactsXmlFile contacts_file [-injectorCacheDir cache_dir]";
     String cmdDescrip = "Read provided dataset presenter files and inject templates into the presentation layer.";
     CommandLine cmdLine = CliUtil.parseOptions(cmdlineSyntax, cmdDescrip,
         getUsageNotes(), options, args);
@@ -194,6 +207,11 @@ public class TemplatesInjector {
   }
 
     static void parseAndProcess(String templatesDir, String presentersDir, String globalXmlFile, String contactsFile) {
+    parseAndProcess(templatesDir, presentersDir, globalXmlFile, contactsFile, null);
+  }
+
+    static void parseAndProcess(String templatesDir, String presentersDir, String globalXmlFile, String contactsFile,
+        String injectorCacheDir) {
     String project_home = System.getenv("PROJECT_HOME");
     String gus_home = System.getenv("GUS_HOME");
 
@@ -222,7 +240,8 @@ public class TemplatesInjector {
 
     TemplatesInjector templatesInjector = new TemplatesInjector(
         datasetPresenterSet, templateSet);
-
+    if (injectorCacheDir != null)
+      templatesInjector.setInjectorCacheDir(new File(injectorCacheDir));
     templatesInjector.processDatasetPresenterSet(project_home, gus_home);
 
   }
@@ -233,8 +252,9 @@ public class TemplatesInjector {
     String presentersDir = cmdLine.getOptionValue("presentersDir");
     String globalXmlFile = cmdLine.getOptionValue("globalPresentersFile");
     String contactsFile = cmdLine.getOptionValue("contactsXmlFile");
+    String injectorCacheDir = cmdLine.getOptionValue("injectorCacheDir");
     try {
-        parseAndProcess(templatesDir, presentersDir, globalXmlFile, contactsFile);
+        parseAndProcess(templatesDir, presentersDir, globalXmlFile, contactsFile, injectorCacheDir);
     } catch (Exception ex) {
       System.err.println(nl + "Error: " + ex.getMessage() + nl);
       ex.printStackTrace();
@@ -0,0 +1,56 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The problems found validating a DatasetPresenterSet, each with the name of
+ * the presenter (or other input) it concerns. Validation records problems here
+ * and carries on, so that one run reports all of them. Problems may be added
+ * from several threads.
+ */
+class ValidationErrors {
+
+  private final List<String[]> _errors = Collections.synchronizedList(new ArrayList<String[]>());
+
+  void add(String subject, String message) {
+    _errors.add(new String[] { subject, message });
+  }
+
+  boolean isEmpty() {
+    return _errors.isEmpty();
+  }
+
+  int size() {
+    return _errors.size();
+  }
+
+  /**
+   * @return all problems, grouped by subject
+   */
+  String getReport() {
+    List<String[]> errors;
+    synchronized (_errors) {
+      errors = new ArrayList<String[]>(_errors);
+    }
+    // stable, so a subject's problems keep the order they were found in
+    Collections.sort(errors, Comparator.comparing((String[] e) -> e[0]));
+    StringBuilder report = new StringBuilder();
+    for (String[] error : errors) {
+      report.append(error[0]).append(": ").append(error[1]).append(NL);
+    }
+    return report.toString();
+  }
+
+  /**
+   * @throws ValidationException if any problems were found
+   */
+  void throwIfAny(String instance) {
+    if (!isEmpty())
+      throw new ValidationException(this, instance);
+  }
+}
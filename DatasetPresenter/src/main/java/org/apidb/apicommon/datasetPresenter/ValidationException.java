@@ -0,0 +1,24 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+/**
+ * Thrown when validating a DatasetPresenterSet finds problems. Carries all of
+ * them (see ValidationErrors).
+ */
+public class ValidationException extends UserException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient ValidationErrors _errors;
+
+  ValidationException(ValidationErrors errors, String instance) {
+    super("Validation against " + instance + " found " + errors.size()
+        + " problem(s):" + NL + errors.getReport());
+    _errors = errors;
+  }
+
+  ValidationErrors getErrors() {
+    return _errors;
+  }
+}
@@ -0,0 +1,99 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BlockIdAllocatorTest {
+
+  /**
+   * Sequences, by name, that start at 1 and increment by BLOCK_SIZE, as
+   * presenterCreateSchema makes them.
+   */
+  private static class Sequences {
+    final Map<String, Long> next = new HashMap<String, Long>();
+    final Map<String, Integer> queries = new HashMap<String, Integer>();
+
+    long nextval(String sequence) {
+      long value = next.getOrDefault(sequence, 1L);
+      next.put(sequence, value + BlockIdAllocator.BLOCK_SIZE);
+      queries.merge(sequence, 1, Integer::sum);
+      return value;
+    }
+
+    Connection getConnection() {
+      return proxy(Connection.class, (method, args) -> {
+        if (!method.equals("prepareStatement")) throw new UnsupportedOperationException(method);
+        String sql = (String) args[0];
+        String sequence = sql.substring("SELECT ".length(), sql.indexOf(".nextval"));
+        return proxy(PreparedStatement.class, (stmtMethod, stmtArgs) -> {
+          if (stmtMethod.equals("close")) return null;
+          if (!stmtMethod.equals("executeQuery")) throw new UnsupportedOperationException(stmtMethod);
+          long value = nextval(sequence);
+          return proxy(ResultSet.class, (rsMethod, rsArgs) -> {
+            switch (rsMethod) {
+              case "next": return true;
+              case "getLong": return value;
+              case "close": return null;
+              default: throw new UnsupportedOperationException(rsMethod);
+            }
+          });
+        });
+      });
+    }
+  }
+
+  private interface Handler {
+    Object invoke(String method, Object[] args) throws Exception;
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+        (proxy, method, args) -> handler.invoke(method.getName(), args)));
+  }
+
+  @Test
+  public void testIdsUseUpEachBlock() throws SQLException {
+    Sequences sequences = new Sequences();
+    BlockIdAllocator allocator = new BlockIdAllocator(sequences.getConnection(), "apidbTuning", "1");
+    for (long id = 1; id <= 2 * BlockIdAllocator.BLOCK_SIZE + 1; id++) {
+      assertEquals(id, allocator.nextId(PresenterTable.PROPERTY));
+    }
+    // one nextval per block of ids handed out
+    assertEquals(Integer.valueOf(3), sequences.queries.get("apidbTuning.DatasetProperty1_sq"));
+    allocator.close();
+  }
+
+  @Test
+  public void testTablesHaveTheirOwnBlocks() throws SQLException {
+    Sequences sequences = new Sequences();
+    BlockIdAllocator allocator = new BlockIdAllocator(sequences.getConnection(), "apidbTuning", "1");
+    assertEquals(1, allocator.nextId(PresenterTable.PROPERTY));
+    assertEquals(1, allocator.nextId(PresenterTable.CONTACT));
+    assertEquals(2, allocator.nextId(PresenterTable.PROPERTY));
+    assertEquals(2, allocator.nextId(PresenterTable.CONTACT));
+    allocator.close();
+  }
+
+  @Test
+  public void testAllocatorsSharingASequenceGetDisjointBlocks() throws SQLException {
+    Sequences sequences = new Sequences();
+    Connection connection = sequences.getConnection();
+    BlockIdAllocator first = new BlockIdAllocator(connection, "apidbTuning", "1");
+    BlockIdAllocator second = new BlockIdAllocator(connection, "apidbTuning", "1");
+    assertEquals(1, first.nextId(PresenterTable.LINK));
+    assertEquals(BlockIdAllocator.BLOCK_SIZE + 1, second.nextId(PresenterTable.LINK));
+    assertEquals(2, first.nextId(PresenterTable.LINK));
+    assertEquals(BlockIdAllocator.BLOCK_SIZE + 2, second.nextId(PresenterTable.LINK));
+    first.close();
+    second.close();
+  }
+}
@@ -0,0 +1,71 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class DatasetNamePatternAnalyzerTest {
+
+  @Test
+  public void testLiteralNames() {
+    assertFalse(DatasetNamePatternAnalyzer.intersectionIsEmpty("pfal3D7_rna_RSRC", "pfal3D7_rna_RSRC"));
+    assertTrue(DatasetNamePatternAnalyzer.intersectionIsEmpty("pfal3D7_rna_RSRC", "pfal3D7_dna_RSRC"));
+  }
+
+  @Test
+  public void testWildcards() {
+    // '_' is any one char
+    assertFalse(DatasetNamePatternAnalyzer.intersectionIsEmpty("pfal3D7_rna_RSRC", "pfal3D7_r_a_RSRC"));
+    assertTrue(DatasetNamePatternAnalyzer.intersectionIsEmpty("ab_", "ab"));
+    // '%' is any string, including the empty one
+    assertFalse(DatasetNamePatternAnalyzer.intersectionIsEmpty("pfal%_RSRC", "%3D7_rna_RSRC"));
+    assertFalse(DatasetNamePatternAnalyzer.intersectionIsEmpty("ab%", "ab"));
+    assertFalse(DatasetNamePatternAnalyzer.intersectionIsEmpty("%", "anything"));
+    assertTrue(DatasetNamePatternAnalyzer.intersectionIsEmpty("%_RSRC", "%_ebi"));
+    assertTrue(DatasetNamePatternAnalyzer.intersectionIsEmpty("pfal%", "pviv%"));
+  }
+
+  @Test
+  public void testLiteralSuffix() {
+    // '_' is a wildcard too
+    assertEquals("RSRC", DatasetNamePatternAnalyzer.getLiteralSuffix("pfal%_RSRC"));
+    assertEquals("", DatasetNamePatternAnalyzer.getLiteralSuffix("pfal%"));
+    assertEquals("pfal", DatasetNamePatternAnalyzer.getLiteralSuffix("pfal"));
+  }
+
+  @Test
+  public void testFindConflicts() {
+    DatasetPresenterSet dps = new DatasetPresenterSet();
+    dps.addDatasetPresenter(newPresenter("pfal3D7_chipSeq_RSRC", "pfal3D7_chipSeq_%_RSRC", null));
+    dps.addDatasetPresenter(newPresenter("pfal3D7_rnaSeq_RSRC", "pfal3D7_rnaSeq_%", null));
+    dps.addDatasetPresenter(newPresenter("pviv_rnaSeq_RSRC", null, null));
+    // overrides are meant to overlap the dataset they override
+    dps.addDatasetPresenter(newPresenter("pfal3D7_rnaSeq_override_RSRC", null, "pfal3D7_rnaSeq_RSRC"));
+    dps.addInternalDataset(newInternalDataset("pfal3D7_chipSeq_Lee_RSRC", null));
+    dps.addInternalDataset(newInternalDataset("pviv_internal", "pviv_%_internal"));
+
+    List<String> conflicts = new DatasetNamePatternAnalyzer(dps).findConflicts();
+    assertEquals(1, conflicts.size());
+    assertTrue(conflicts.get(0), conflicts.get(0).contains("\"pfal3D7_chipSeq_RSRC\"")
+        && conflicts.get(0).contains("\"pfal3D7_chipSeq_Lee_RSRC\""));
+  }
+
+  private static DatasetPresenter newPresenter(String name, String pattern, String override) {
+    DatasetPresenter presenter = new DatasetPresenter();
+    presenter.setName(name);
+    if (pattern != null) presenter.setDatasetNamePattern(pattern);
+    if (override != null) presenter.setOverride(override);
+    return presenter;
+  }
+
+  private static InternalDataset newInternalDataset(String name, String pattern) {
+    InternalDataset internalDataset = new InternalDataset();
+    internalDataset.setName(name);
+    if (pattern != null) internalDataset.setDatasetNamePattern(pattern);
+    return internalDataset;
+  }
+}
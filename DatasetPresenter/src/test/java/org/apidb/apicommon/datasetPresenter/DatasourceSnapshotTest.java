@@ -0,0 +1,93 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DatasourceSnapshotTest {
+
+  private static final String[] NAMES = {
+      "pfal3D7_chipSeq_Lee_RSRC",
+      "pfal3D7_chipSeq_Westenberger_RSRC",
+      "pfal3D7_rnaSeq_RSRC",
+      "pfal3D7_rnaSeq_RSRC_ebi",
+      "pfal3D7X_rnaSeq_RSRC",
+      "pviv_rnaSeq_RSRC",
+      "pfal3D7_100%_RSRC" };
+
+  @Test
+  public void testLiteralName() throws IOException {
+    DatasourceSnapshot snapshot = loadSnapshot();
+    assertEquals(Arrays.asList("pfal3D7_rnaSeq_RSRC"), findNames(snapshot, "pfal3D7_rnaSeq_RSRC"));
+    assertEquals(Arrays.asList(), findNames(snapshot, "pfal3D7_rnaSeq"));
+  }
+
+  @Test
+  public void testPercent() throws IOException {
+    DatasourceSnapshot snapshot = loadSnapshot();
+    assertEquals(Arrays.asList("pfal3D7_chipSeq_Lee_RSRC", "pfal3D7_chipSeq_Westenberger_RSRC"),
+        findNames(snapshot, "pfal3D7_chipSeq_%_RSRC"));
+    assertEquals(Arrays.asList("pfal3D7_rnaSeq_RSRC", "pfal3D7_rnaSeq_RSRC_ebi"),
+        findNames(snapshot, "pfal3D7_rnaSeq_RSRC%"));
+    assertEquals(Arrays.asList("pfal3D7X_rnaSeq_RSRC", "pfal3D7_rnaSeq_RSRC", "pviv_rnaSeq_RSRC"),
+        findNames(snapshot, "%rnaSeq_RSRC"));
+  }
+
+  @Test
+  public void testUnderscore() throws IOException {
+    DatasourceSnapshot snapshot = loadSnapshot();
+    // '_' is any one char, so it matches the X as well as the '_'
+    assertEquals(Arrays.asList("pfal3D7X_rnaSeq_RSRC", "pfal3D7_rnaSeq_RSRC"),
+        findNames(snapshot, "pfal3D7_%rnaSeq_RSRC"));
+    // and only one
+    assertEquals(Arrays.asList("pfal3D7X_rnaSeq_RSRC"), findNames(snapshot, "pfal3D7__rnaSeq_RSRC"));
+    assertEquals(Arrays.asList(), findNames(snapshot, "pviv_rnaSeq_RSR"));
+  }
+
+  @Test
+  public void testRegexCharsAreLiteral() throws IOException {
+    DatasourceSnapshot snapshot = loadSnapshot();
+    assertEquals(Arrays.asList(), findNames(snapshot, "pfal3D7.rnaSeq%"));
+    assertEquals(Arrays.asList("pfal3D7_100%_RSRC"), findNames(snapshot, "pfal3D7_1__%_RSRC"));
+  }
+
+  @Test
+  public void testRowValues() throws IOException {
+    DatasourceSnapshot.Row row = loadSnapshot().findRows("pviv_rnaSeq_RSRC").get(0);
+    assertEquals(5855, row.getTaxonId());
+    assertEquals("transcript_expression", row.getType());
+    assertEquals(null, row.getSubtype());
+    assertEquals(true, row.getIsSpeciesScope());
+  }
+
+  private static List<String> findNames(DatasourceSnapshot snapshot, String pattern) {
+    List<String> names = new ArrayList<String>();
+    for (DatasourceSnapshot.Row row : snapshot.findRows(pattern)) {
+      names.add(row.getName());
+    }
+    return names;
+  }
+
+  private static DatasourceSnapshot loadSnapshot() throws IOException {
+    StringBuilder text = new StringBuilder("#fingerprint\t7\t2024-01-01 00:00:00\n");
+    for (String name : NAMES) {
+      text.append(name).append("\t5855\ttranscript_expression\t\t1\n");
+    }
+    File file = File.createTempFile("datasource", ".tsv");
+    try {
+      Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+      return DatasourceSnapshot.load(file, null);
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
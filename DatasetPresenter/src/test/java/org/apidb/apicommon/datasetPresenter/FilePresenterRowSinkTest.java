@@ -0,0 +1,31 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FilePresenterRowSinkTest {
+
+  @Test
+  public void testPlainValues() {
+    assertEquals("", FilePresenterRowSink.formatValue(null));
+    assertEquals("1", FilePresenterRowSink.formatValue(Boolean.TRUE));
+    assertEquals("0", FilePresenterRowSink.formatValue(Boolean.FALSE));
+    assertEquals("5833", FilePresenterRowSink.formatValue(5833));
+    assertEquals("RNA-Seq of P. falciparum", FilePresenterRowSink.formatValue("RNA-Seq of P. falciparum"));
+  }
+
+  @Test
+  public void testQuotedValues() {
+    assertEquals("\"a\tb\"", FilePresenterRowSink.formatValue("a\tb"));
+    assertEquals("\"a\nb\"", FilePresenterRowSink.formatValue("a\nb"));
+    assertEquals("\"a\r\nb\"", FilePresenterRowSink.formatValue("a\r\nb"));
+    assertEquals("\"say \"\"hi\"\"\"", FilePresenterRowSink.formatValue("say \"hi\""));
+    assertEquals("\"a\u001Eb\"", FilePresenterRowSink.formatValue("a\u001Eb"));
+  }
+
+  @Test(expected = UserException.class)
+  public void testRecordEndIsRejected() {
+    FilePresenterRowSink.formatValue("a\u001E\nb");
+  }
+}
@@ -0,0 +1,216 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class InjectorOutputCacheTest {
+
+  private static final String DATASET = "pfal3D7_rnaSeq_RSRC";
+  private static final String OTHER_DATASET = "pviv_rnaSeq_RSRC";
+
+  public static class CachedInjector extends DatasetInjector {
+
+    @Override
+    public void injectTemplates() {
+      // the instances are made by runAndPut(), as the injector has no set
+      setPropValue("sampleCount", "3");
+    }
+
+    @Override
+    public void addModelReferences() {}
+
+    @Override
+    public String[][] getPropertiesDeclaration() {
+      return new String[][] { { "organism", "" } };
+    }
+  }
+
+  @Test
+  public void testHitForSameInjector() throws IOException {
+    File dir = newCacheDir();
+    try {
+      Map<String, Map<String, String>> globalProps = newGlobalProps();
+      String key = runAndPut(newCache(dir, globalProps), newInjector("pfal3D7"), new TreeSet<String>());
+
+      InjectorOutputCache cache = newCache(dir, globalProps);
+      DatasetInjector injector = newInjector("pfal3D7");
+      assertEquals(key, cache.getKey(injector));
+      List<TemplateInstance> replayed = cache.get(key, injector);
+      assertEquals(1, replayed.size());
+      assertEquals("rnaSeqGraph", replayed.get(0).getTemplateName());
+      assertEquals("3", replayed.get(0).getPropValue("sampleCount"));
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testMissAfterPropertyChange() throws IOException {
+    File dir = newCacheDir();
+    try {
+      Map<String, Map<String, String>> globalProps = newGlobalProps();
+      String key = runAndPut(newCache(dir, globalProps), newInjector("pfal3D7"), new TreeSet<String>());
+
+      InjectorOutputCache cache = newCache(dir, globalProps);
+      DatasetInjector changed = newInjector("pfal3D7_2");
+      String changedKey = cache.getKey(changed);
+      assertNotEquals(key, changedKey);
+      assertNull(cache.get(changedKey, changed));
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testMissAfterReadDatasetChange() throws IOException {
+    File dir = newCacheDir();
+    try {
+      Set<String> reads = new TreeSet<String>(Arrays.asList(GlobalPropertyReads.DATASET + DATASET));
+      String key = runAndPut(newCache(dir, newGlobalProps()), newInjector("pfal3D7"), reads);
+
+      // a dataset it didn't read
+      Map<String, Map<String, String>> otherChanged = newGlobalProps();
+      otherChanged.get(OTHER_DATASET).put("organismAbbrev", "pvivP01");
+      assertTrue(replays(newCache(dir, otherChanged), key));
+
+      Map<String, Map<String, String>> readChanged = newGlobalProps();
+      readChanged.get(DATASET).put("organismAbbrev", "pfalIT");
+      assertFalse(replays(newCache(dir, readChanged), key));
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testMissAfterAnyChangeWhenAllWereRead() throws IOException {
+    File dir = newCacheDir();
+    try {
+      Set<String> reads = new TreeSet<String>(Arrays.asList(GlobalPropertyReads.ALL));
+      String key = runAndPut(newCache(dir, newGlobalProps()), newInjector("pfal3D7"), reads);
+      assertTrue(replays(newCache(dir, newGlobalProps()), key));
+
+      Map<String, Map<String, String>> otherChanged = newGlobalProps();
+      otherChanged.get(OTHER_DATASET).put("organismAbbrev", "pvivP01");
+      assertFalse(replays(newCache(dir, otherChanged), key));
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testResultPropertiesAreRestored() throws IOException {
+    File dir = newCacheDir();
+    try {
+      Map<String, Map<String, String>> globalProps = newGlobalProps();
+      String key = runAndPut(newCache(dir, globalProps), newInjector("pfal3D7"), new TreeSet<String>());
+
+      DatasetInjector injector = newInjector("pfal3D7");
+      assertNull(injector.getPropValue("sampleCount"));
+      InjectorOutputCache cache = newCache(dir, globalProps);
+      cache.get(cache.getKey(injector), injector);
+      assertEquals("3", injector.getPropValue("sampleCount"));
+      assertEquals("pfal3D7", injector.getPropValue("organism"));
+      assertEquals(key, cache.getKey(newInjector("pfal3D7")));
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testEvictUnused() throws IOException {
+    File dir = newCacheDir();
+    try {
+      Map<String, Map<String, String>> globalProps = newGlobalProps();
+      InjectorOutputCache first = newCache(dir, globalProps);
+      String usedKey = runAndPut(first, newInjector("pfal3D7"), new TreeSet<String>());
+      String unusedKey = runAndPut(first, newInjector("pviv"), new TreeSet<String>());
+      File otherVersion = new File(dir, "v1");
+      assertTrue(otherVersion.mkdir());
+      assertTrue(new File(otherVersion, "entry").createNewFile());
+
+      // a run that only looks up one of them
+      InjectorOutputCache second = newCache(dir, globalProps);
+      DatasetInjector injector = newInjector("pfal3D7");
+      second.get(second.getKey(injector), injector);
+      assertEquals(2, second.evictUnused());
+
+      File versionDir = new File(dir, "v2");
+      assertTrue(new File(versionDir, usedKey).exists());
+      assertFalse(new File(versionDir, unusedKey).exists());
+      assertFalse(otherVersion.exists());
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  private static String runAndPut(InjectorOutputCache cache, DatasetInjector injector, Set<String> reads) {
+    String key = cache.getKey(injector);
+    assertNull(cache.get(key, injector));
+    injector.injectTemplates();
+    List<TemplateInstance> instances = Collections.singletonList(
+        new TemplateInstance("rnaSeqGraph", injector.getPropValues()));
+    cache.put(key, injector, reads, instances);
+    return key;
+  }
+
+  private static boolean replays(InjectorOutputCache cache, String key) {
+    DatasetInjector injector = newInjector("pfal3D7");
+    assertEquals(key, cache.getKey(injector));
+    return cache.get(key, injector) != null;
+  }
+
+  private static DatasetInjector newInjector(String organism) {
+    CachedInjector injector = new CachedInjector();
+    injector.setDatasetName(DATASET);
+    Map<String, String> propValues = new HashMap<String, String>();
+    propValues.put("organism", organism);
+    injector.addPropValues(propValues);
+    return injector;
+  }
+
+  private static InjectorOutputCache newCache(File dir, Map<String, Map<String, String>> globalProps) {
+    return new InjectorOutputCache(dir, GlobalDatasetPropertyIndex.getIndex(globalProps), null);
+  }
+
+  private static Map<String, Map<String, String>> newGlobalProps() {
+    Map<String, Map<String, String>> globalProps = new LinkedHashMap<String, Map<String, String>>();
+    globalProps.put(DATASET, new HashMap<String, String>(Collections.singletonMap("organismAbbrev", "pfal3D7")));
+    globalProps.put(OTHER_DATASET, new HashMap<String, String>(Collections.singletonMap("organismAbbrev", "pvivSal1")));
+    return globalProps;
+  }
+
+  private static File newCacheDir() throws IOException {
+    return Files.createTempDirectory("injectorCache").toFile();
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) delete(child);
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,79 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class PresenterRowsTest {
+
+  private static final String ID = "DS_0123456789";
+
+  @Test
+  public void testDigestIgnoresRowOrder() {
+    PresenterRows first = newRows();
+    first.addRow(PresenterTable.PROPERTY, ID, "organism", "pfal3D7");
+    first.addRow(PresenterTable.PROPERTY, ID, "isSpeciesScope", "false");
+    first.addRow(PresenterTable.MODEL_REF, ID, "GeneRecordClasses.GeneRecordClass", "table", "Taxonomy");
+    first.seal();
+
+    PresenterRows second = newRows();
+    second.addRow(PresenterTable.MODEL_REF, ID, "GeneRecordClasses.GeneRecordClass", "table", "Taxonomy");
+    second.addRow(PresenterTable.PROPERTY, ID, "isSpeciesScope", "false");
+    second.addRow(PresenterTable.PROPERTY, ID, "organism", "pfal3D7");
+    second.seal();
+
+    assertEquals(first.getContentDigest(), second.getContentDigest());
+  }
+
+  @Test
+  public void testDigestCoversValuesAndTables() {
+    PresenterRows rows = newRows();
+    rows.addRow(PresenterTable.PROPERTY, ID, "organism", "pfal3D7");
+    rows.seal();
+
+    PresenterRows changedValue = newRows();
+    changedValue.addRow(PresenterTable.PROPERTY, ID, "organism", "pviv");
+    changedValue.seal();
+    assertNotEquals(rows.getContentDigest(), changedValue.getContentDigest());
+
+    // a null is not the string "null"
+    PresenterRows nullValue = newRows();
+    nullValue.addRow(PresenterTable.PROPERTY, ID, "organism", null);
+    nullValue.seal();
+    PresenterRows nullString = newRows();
+    nullString.addRow(PresenterTable.PROPERTY, ID, "organism", "null");
+    nullString.seal();
+    assertNotEquals(nullValue.getContentDigest(), nullString.getContentDigest());
+
+    // the same values in another table
+    PresenterRows otherTable = newRows();
+    otherTable.addRow(PresenterTable.PUBLICATION, ID, "organism", "pfal3D7");
+    otherTable.seal();
+    assertNotEquals(rows.getContentDigest(), otherTable.getContentDigest());
+  }
+
+  @Test
+  public void testSealStoresDigest() {
+    PresenterRows rows = newRows();
+    rows.seal();
+    Object[] presenterRow = rows.getRows(PresenterTable.PRESENTER).get(0);
+    assertEquals(rows.getContentDigest(), presenterRow[presenterRow.length - 1]);
+  }
+
+  @Test(expected = UnexpectedException.class)
+  public void testSealedRowsAreFinal() {
+    PresenterRows rows = newRows();
+    rows.seal();
+    rows.addRow(PresenterTable.PROPERTY, ID, "organism", "pfal3D7");
+  }
+
+  private static PresenterRows newRows() {
+    PresenterRows rows = new PresenterRows(ID);
+    Object[] presenterRow = new Object[PresenterTable.PRESENTER.getColumns().length];
+    presenterRow[0] = ID;
+    presenterRow[2] = "pfal3D7_rnaSeq_RSRC";
+    rows.addRow(PresenterTable.PRESENTER, presenterRow);
+    return rows;
+  }
+}
@@ -0,0 +1,48 @@
+package org.apidb.apicommon.datasetPresenter;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * The expected hashes were computed outside Java, following the definition in
+ * PresenterTableVerifier (as Oracle's standard_hash gives them).
+ */
+public class PresenterTableVerifierTest {
+
+  private static final String ID = "DS_0123456789";
+
+  @Test
+  public void testKnownHashes() {
+    assertEquals(534669245639630389L,
+        PresenterTableVerifier.getRowHash(PresenterTable.NAME_TAXON, new Object[] { ID, "pfal3D7", 5833 }));
+    assertEquals(332786638979399725L, PresenterTableVerifier.getRowHash(PresenterTable.HISTORY,
+        new Object[] { ID, 12.5f, "GeneDB", "2015-06-18", null, null, null, null, null }));
+  }
+
+  @Test
+  public void testNullAndEmptyAreTheSame() {
+    long expected = 969511577626497552L;
+    assertEquals(expected,
+        PresenterTableVerifier.getRowHash(PresenterTable.NAME_TAXON, new Object[] { ID, null, 5833 }));
+    assertEquals(expected,
+        PresenterTableVerifier.getRowHash(PresenterTable.NAME_TAXON, new Object[] { ID, "", 5833 }));
+  }
+
+  @Test
+  public void testCitationIsNotCompared() {
+    long expected = 536283715046802409L;
+    assertEquals(expected, PresenterTableVerifier.getRowHash(PresenterTable.PUBLICATION,
+        new Object[] { ID, "12345", "Lee et al. Nature 2015" }));
+    assertEquals(expected, PresenterTableVerifier.getRowHash(PresenterTable.PUBLICATION,
+        new Object[] { ID, "12345", null }));
+  }
+
+  @Test
+  public void testFloatsAreRoundedToThousandths() {
+    Object[] row = { ID, 12.5f, "GeneDB", "2015-06-18", null, null, null, null, null };
+    Object[] close = { ID, 12.5001f, "GeneDB", "2015-06-18", null, null, null, null, null };
+    assertEquals(PresenterTableVerifier.getRowHash(PresenterTable.HISTORY, row),
+        PresenterTableVerifier.getRowHash(PresenterTable.HISTORY, close));
+  }
+}
@@ -0,0 +1,171 @@
+package org.apidb.apicommon.model.datasetInjector;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import org.apidb.apicommon.datasetPresenter.AggregateDatasetInjector;
+import org.apidb.apicommon.datasetPresenter.GlobalDatasetPropertyIndex;
+
+/**
+ * The default organisms of the organism params (reference strains, per project
+ * and for the portal), computed once from the global dataset properties for
+ * the NcbiTaxonomy presenter. The templates also get that presenter's own
+ * property values (datasetName, presenterId, ...).
+ */
+public class ReferenceOrganismDefaults extends AggregateDatasetInjector {
+
+  @Override
+  public void injectTemplates() {
+
+    GlobalDatasetPropertyIndex index = getGlobalDatasetPropertyIndex();
+
+    Map<String, String> refOrgs = new HashMap<String, String>();
+    Map<String, String> refOrgsAnnot = new HashMap<String, String>();
+
+    Map<String, String> iedbOrgs = new HashMap<String, String>();
+    Map<String, String> tfbsOrgs = new HashMap<String, String>();
+    Map<String, String> ecOrgs = new HashMap<String, String>();
+
+    // Find all reference organisms and inject for organism param default
+    for (String propSetName : index.getDatasetNamesEndingWith("_epitope_IEDB_RSRC")) {
+
+      Map<String, String> propSet = index.getProperties(propSetName);
+
+      String organismAbbrev = getPropOrThrow(propSetName, propSet, "organismAbbrev");
+      String orgPropsKey = organismAbbrev + "_RSRC";
+      Map<String, String> orgProps = getOrgPropsOrThrow(index.getOrganismProperties(null, organismAbbrev), orgPropsKey);
+
+      String projectName = getPropOrThrow(orgPropsKey, orgProps, "projectName");
+      String organismFullName = getPropOrThrow(orgPropsKey, orgProps, "organismFullName");
+      boolean isReferenceStrain = "true".equalsIgnoreCase(orgProps.get("isReferenceStrain"));
+
+      if (isReferenceStrain) {
+        addOrganism(iedbOrgs, projectName, organismFullName);
+      }
+    }
+
+    // the project datasets, in the order of the global properties
+    for (String propSetName : index.getProjectDatasetNames()) {
+
+      Map<String, String> propSet = index.getProperties(propSetName);
+      String projectName = getPropOrThrow(propSetName, propSet, "projectName");
+
+      if (!projectName.equals("UniDB")) {
+        injectTemplate("projectIdForPrimaryKey");
+      }
+
+      String organismAbbrev = getPropOrThrow(propSetName, propSet, "organismAbbrev");
+      String orgPropsKey = projectName + ":" + organismAbbrev + "_RSRC";
+      Map<String, String> orgProps = getOrgPropsOrThrow(index.getOrganismProperties(propSetName), orgPropsKey);
+
+      String organismFullName = getPropOrThrow(orgPropsKey, orgProps, "organismFullName");
+      boolean isReferenceStrain = "true".equalsIgnoreCase(orgProps.get("isReferenceStrain"));
+
+      if (propSetName.endsWith("_Llinas_TransFactorBindingSites_GFF2_RSRC") && isReferenceStrain) {
+        addOrganism(tfbsOrgs, projectName, organismFullName);
+      }
+
+      if (propSetName.endsWith("_ECAssociations_RSRC") && isReferenceStrain) {
+        addOrganism(ecOrgs, projectName, organismFullName);
+      }
+
+      if ("true".equalsIgnoreCase(propSet.get("isReferenceStrain"))) {
+
+        organismFullName = getPropOrThrow(propSetName, propSet, "organismFullName");
+
+        if ("true".equalsIgnoreCase(propSet.get("isAnnotatedGenome"))) {
+          addOrganism(refOrgsAnnot, projectName, organismFullName);
+        }
+
+        addOrganism(refOrgs, projectName, organismFullName);
+      }
+    }
+
+    // Reference Organism Defaults
+
+    // All Annotated Reference Organisms
+    for (Map.Entry<String, String> refOrg : refOrgsAnnot.entrySet()) {
+      setPropValue("projectName", refOrg.getKey());
+
+      if (!refOrg.getKey().equals("EuPathDB")) {
+        setPropValue("referenceOrganisms", refOrg.getValue());
+        injectTemplate("referenceOrganisms");
+      }
+    }
+    
+    // All Reference Organisms
+    for (Map.Entry<String, String> refOrg : refOrgs.entrySet()) {
+      setPropValue("projectName", refOrg.getKey());
+      setPropValue("referenceOrganisms", refOrg.getValue());
+
+      if (refOrg.getKey().equals("EuPathDB")) { // injectTemplate("genomicOrganismOverridePortal"); } else {
+        injectTemplate("genomicOrganismOverride");
+      }
+    }
+
+    for (Map.Entry<String, String> refOrg : tfbsOrgs.entrySet()) {
+      setPropValue("projectName", refOrg.getKey());
+      setPropValue("referenceOrganisms", refOrg.getValue());
+
+      if (refOrg.getKey().equals("EuPathDB")) {
+        injectTemplate("geneTfbsOrganismOverridePortal");
+      }
+      else {
+        injectTemplate("geneTfbsOrganismOverride");
+      }
+    }
+
+    for (Map.Entry<String, String> refOrg : ecOrgs.entrySet()) {
+      setPropValue("projectName", refOrg.getKey());
+      setPropValue("referenceOrganisms", refOrg.getValue());
+
+      if (refOrg.getKey().equals("EuPathDB")) {
+        injectTemplate("geneEcOrganismOverridePortal");
+      }
+      else {
+        injectTemplate("geneEcOrganismOverride");
+      }
+    }
+
+    for (Map.Entry<String, String> refOrg : iedbOrgs.entrySet()) {
+      setPropValue("projectName", refOrg.getKey());
+      setPropValue("referenceOrganisms", refOrg.getValue());
+
+      if (refOrg.getKey().equals("EuPathDB")) {
+        injectTemplate("geneEpitopeOrganismOverridePortal");
+      }
+      else {
+        injectTemplate("geneEpitopeOrganismOverride");
+      }
+    }
+  }
+
+  private static String getPropOrThrow(String propSetName, Map<String, String> propSet, String key) {
+    String value = propSet.get(key);
+    if (value == null) {
+      throw new RuntimeException("Prop set for '" + propSetName + "' does not contain property '" + key + "'.");
+    }
+    return value;
+  }
+
+  private static Map<String, String> getOrgPropsOrThrow(Map<String, String> orgProps, String orgPropsKey) {
+    if (orgProps == null) {
+      throw new RuntimeException("Global dataset properties does not contain an organism propset with key '" + orgPropsKey + "'.");
+    }
+    return orgProps;
+  }
+
+  private static void addOrganism(Map<String, String> orgMap, String projectName, String organismFullName) {
+    if (orgMap.containsKey(projectName)) {
+      String orgsString = orgMap.get(projectName);
+      orgsString = orgsString + "," + organismFullName;
+      orgMap.put(projectName, orgsString);
+      orgMap.put("EuPathDB", orgsString);
+    }
+    else {
+      orgMap.put(projectName, organismFullName);
+      orgMap.put("EuPathDB", organismFullName);
+    }
+  }
+
+}